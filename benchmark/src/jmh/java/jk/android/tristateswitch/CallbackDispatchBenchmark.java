@@ -0,0 +1,112 @@
+package jk.android.tristateswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Fan-out of a burst of side changes to many callbacks through the library's
+ * {@link SideChangeDispatcher}, with the frame flush run by hand instead of by the view.
+ * <p>
+ * Every other callback wants its events on an executor. {@link #immediate} is the baseline that
+ * notifies every callback about every change as it happens, through the same notifier.
+ * This suite lives in the library package because the dispatcher is package-private.
+ */
+@State(Scope.Thread)
+public class CallbackDispatchBenchmark {
+
+    // ******************************************
+
+    private static final int POSITION_COUNT = 3;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final SideChangeDispatcher.Notifier<Counter> NOTIFIER = new SideChangeDispatcher.Notifier<Counter>() {
+        @Override
+        public void notify(Counter callback, int started, int ended, int positionCount) {
+            if (started >= 0) {
+                callback.events += started + 1;
+            }
+            if (ended >= 0) {
+                callback.events += ended + 1;
+            }
+        }
+    };
+
+    @Param({"1", "8", "64"})
+    public int callbacks;
+
+    /** Side changes started within one frame. */
+    @Param({"1", "16"})
+    public int changesPerFrame;
+
+    private Counter[] counters;
+    private SideChangeDispatcher<Counter> dispatcher;
+    private Runnable nextFrame;
+
+    // ******************************************
+
+    @Setup
+    public void setUp() {
+        dispatcher = new SideChangeDispatcher<>(new SideChangeDispatcher.FrameScheduler() {
+            @Override
+            public void postOnNextFrame(Runnable task) {
+                nextFrame = task;
+            }
+        }, NOTIFIER);
+
+        counters = new Counter[callbacks];
+        for (int i = 0; i < callbacks; i++) {
+            counters[i] = new Counter();
+            dispatcher.add(counters[i], (i % 2 == 0) ? null : DIRECT);
+        }
+    }
+
+    @Benchmark
+    public int coalesced() {
+        int side = 0;
+        for (int i = 0; i < changesPerFrame; i++) {
+            side = i % POSITION_COUNT;
+            dispatcher.dispatchStarted(side, POSITION_COUNT);
+        }
+        dispatcher.dispatchEnded(side, POSITION_COUNT);
+
+        // The frame callback.
+        Runnable frame = nextFrame;
+        nextFrame = null;
+        frame.run();
+        return counters[0].events;
+    }
+
+    @Benchmark
+    public int immediate() {
+        int side = 0;
+        for (int i = 0; i < changesPerFrame; i++) {
+            side = i % POSITION_COUNT;
+            for (Counter counter : counters) {
+                NOTIFIER.notify(counter, side, -1, POSITION_COUNT);
+            }
+        }
+        for (Counter counter : counters) {
+            NOTIFIER.notify(counter, -1, side, POSITION_COUNT);
+        }
+        return counters[0].events;
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    private static final class Counter {
+        int events;
+    }
+}
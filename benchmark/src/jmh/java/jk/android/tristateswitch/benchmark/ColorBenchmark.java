@@ -0,0 +1,43 @@
+package jk.android.tristateswitch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import jk.android.tristateswitch.ColorInterpolator;
+
+/**
+ * ARGB interpolation of the track color, done once per animation frame and switch.
+ */
+@State(Scope.Thread)
+public class ColorBenchmark {
+
+    // ******************************************
+
+    static final int STEPS = 256;
+
+    private final ColorInterpolator colors = new ColorInterpolator(0xffe53935, 0xff9e9e9e, 0xff43a047);
+
+    // ******************************************
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int blend() {
+        int hash = 0;
+        for (int i = 0; i < STEPS; i++) {
+            hash ^= ColorInterpolator.blend(0xffe53935, 0xff43a047, i / (float) STEPS);
+        }
+        return hash;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int colorAt() {
+        int hash = 0;
+        for (int i = 0; i < STEPS; i++) {
+            hash ^= colors.colorAt(i / (float) STEPS);
+        }
+        return hash;
+    }
+}
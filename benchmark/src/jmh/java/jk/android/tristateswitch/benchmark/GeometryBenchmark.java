@@ -0,0 +1,47 @@
+package jk.android.tristateswitch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import jk.android.tristateswitch.SwitchGeometry;
+import jk.android.tristateswitch.TriStateArray;
+
+/**
+ * Solving the thumb geometry, as done on every layout, and the per-frame thumb queries.
+ */
+@State(Scope.Thread)
+public class GeometryBenchmark {
+
+    // ******************************************
+
+    static final int SIZES = 256;
+
+    private final SwitchGeometry geometry = new SwitchGeometry();
+
+    // ******************************************
+
+    @Benchmark
+    @OperationsPerInvocation(SIZES)
+    public float layout() {
+        float sum = 0;
+        for (int i = 0; i < SIZES; i++) {
+            geometry.layout(160 + i, 80 + (i / 2));
+            sum += geometry.thumbDestination(TriStateArray.RIGHT);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZES)
+    public float thumbQueries() {
+        geometry.layout(240, 120);
+        float sum = 0;
+        for (int i = 0; i < SIZES; i++) {
+            float left = geometry.clampThumbLeft(i);
+            sum += geometry.position(left) + geometry.nearestSide(left);
+        }
+        return sum;
+    }
+}
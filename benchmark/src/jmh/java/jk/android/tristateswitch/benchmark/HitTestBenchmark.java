@@ -0,0 +1,79 @@
+package jk.android.tristateswitch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import jk.android.tristateswitch.ColorInterpolator;
+import jk.android.tristateswitch.SwitchGeometry;
+import jk.android.tristateswitch.TriStateModel;
+
+/**
+ * Taps and drag releases on a screen full of simulated switches, with three positions like a
+ * TriStateSwitch or more like a SegmentedSwitch.
+ */
+@State(Scope.Thread)
+public class HitTestBenchmark {
+
+    // ******************************************
+
+    static final int SWITCHES = 1024;
+
+    @Param({"3", "5", "16", "64"})
+    public int positionCount;
+
+    private final TriStateModel[] models = new TriStateModel[SWITCHES];
+    private final float[] taps = new float[SWITCHES];
+    private final float[] mirroredTaps = new float[SWITCHES];
+    private final float[] velocities = new float[SWITCHES];
+    private int round;
+
+    // ******************************************
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SWITCHES; i++) {
+            int width = 160 + random.nextInt(160);
+            models[i] = new TriStateModel(new SwitchGeometry(16, 24, positionCount),
+                    new ColorInterpolator(0xffff0000, 0xff808080, 0xff00ff00));
+            models[i].layout(width, width / 2);
+            // Within the outer segments, so a tap and its mirror hit different sides.
+            taps[i] = random.nextFloat() * width / (2f * positionCount);
+            mirroredTaps[i] = width - taps[i];
+            velocities[i] = (random.nextFloat() - 0.5f) * 4000;
+        }
+    }
+
+    /**
+     * Taps alternate between two points on opposite ends of each track, so that every tap
+     * changes the side instead of returning early on the side already selected.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SWITCHES)
+    public int tap() {
+        float[] points = (round++ % 2 == 0) ? taps : mirroredTaps;
+        int changed = 0;
+        for (int i = 0; i < SWITCHES; i++) {
+            if (models[i].tap(points[i])) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SWITCHES)
+    public int release() {
+        int sides = 0;
+        for (int i = 0; i < SWITCHES; i++) {
+            sides += models[i].release(taps[i] / 2, velocities[i], 100);
+        }
+        return sides;
+    }
+}
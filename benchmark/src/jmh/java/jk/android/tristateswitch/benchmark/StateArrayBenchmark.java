@@ -0,0 +1,124 @@
+package jk.android.tristateswitch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+
+import jk.android.tristateswitch.TriStateArray;
+
+/**
+ * Operations on the packed state array backing long lists of switches, next to the boxed
+ * collections it replaces: an {@code ArrayList} of sides and an {@code EnumMap} of counts.
+ * <p>
+ * The baselines use a local {@link Side} enum, as the view's {@code SIDE} cannot be compiled
+ * in this module; both are plain three-constant enums.
+ */
+@State(Scope.Thread)
+public class StateArrayBenchmark {
+
+    // ******************************************
+
+    static final int SIZE = 50000;
+    private static final Side[] SIDES = Side.values();
+
+    private final int[] input = new int[SIZE];
+    private TriStateArray states;
+    private TriStateArray previous;
+    private List<Side> list;
+
+    // ******************************************
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        states = new TriStateArray(SIZE);
+        previous = new TriStateArray(SIZE);
+        list = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            input[i] = random.nextInt(3);
+            states.set(i, input[i]);
+            previous.set(i, (i % 100 == 0) ? (input[i] + 1) % 3 : input[i]);
+            list.add(SIDES[input[i]]);
+        }
+    }
+
+    @Benchmark
+    public TriStateArray set() {
+        for (int i = 0; i < SIZE; i++) {
+            states.set(i, input[i]);
+        }
+        return states;
+    }
+
+    @Benchmark
+    public List<Side> setBoxedList() {
+        for (int i = 0; i < SIZE; i++) {
+            list.set(i, SIDES[input[i]]);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public int get() {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            sum += states.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int getBoxedList() {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            sum += list.get(i).ordinal();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int count() {
+        return states.count(TriStateArray.RIGHT);
+    }
+
+    @Benchmark
+    public int countEnumMap() {
+        EnumMap<Side, Integer> counts = new EnumMap<>(Side.class);
+        for (Side side : list) {
+            Integer count = counts.get(side);
+            counts.put(side, (count == null) ? 1 : count + 1);
+        }
+        Integer right = counts.get(Side.RIGHT);
+        return (right == null) ? 0 : right;
+    }
+
+    @Benchmark
+    public int iterateChanges() {
+        int changes = 0;
+        for (int i = states.nextChangedIndex(previous, 0); i >= 0; i = states.nextChangedIndex(previous, i + 1)) {
+            changes++;
+        }
+        return changes;
+    }
+
+    @Benchmark
+    public TriStateArray fillRange() {
+        states.fill(100, SIZE - 100, TriStateArray.MIDDLE);
+        return states;
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /** Stands in for the view's {@code SIDE}, with the same constants in the same order. */
+    public enum Side {
+        LEFT, MIDDLE, RIGHT
+    }
+}
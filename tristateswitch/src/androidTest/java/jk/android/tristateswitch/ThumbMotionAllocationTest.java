@@ -0,0 +1,87 @@
+package jk.android.tristateswitch;
+
+import android.content.Context;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that toggling the thumb and stepping its motion frame by frame until it settles do
+ * not allocate once the motion engine is warmed up.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbMotionAllocationTest {
+
+    private static final int WARM_UP_TOGGLES = 20;
+    private static final int MEASURED_TOGGLES = 200;
+    private static final long FRAME_MILLIS = 16;
+    private static final int MAX_FRAMES_PER_TOGGLE = 120;
+
+    @Test
+    public void toggle_doesNotAllocateAfterWarmUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final int[] allocations = new int[1];
+        final int[] unsettledToggles = new int[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TriStateSwitch view = new TriStateSwitch(context);
+                RectF thumb = new RectF(80, 24, 160, 56);
+                ThumbMotion motion = new ThumbMotion(view, thumb);
+                long[] frameTime = {0};
+
+                for (int i = 0; i < WARM_UP_TOGGLES; i++) {
+                    toggleAndSettle(motion, i, frameTime);
+                }
+
+                int unsettled = 0;
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < MEASURED_TOGGLES; i++) {
+                    if (!toggleAndSettle(motion, i, frameTime)) {
+                        unsettled++;
+                    }
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+                unsettledToggles[0] = unsettled;
+
+                motion.cancel();
+            }
+        });
+
+        assertEquals(0, unsettledToggles[0]);
+        assertEquals(0, allocations[0]);
+    }
+
+    /**
+     * Starts a side change and steps it one frame at a time, the way the {@link FrameClock}
+     * does, until the spring settles.
+     *
+     * @return whether the motion settled within {@link #MAX_FRAMES_PER_TOGGLE} frames
+     */
+    private static boolean toggleAndSettle(ThumbMotion motion, int i, long[] frameTime) {
+        if (i % 2 == 0) {
+            motion.animateTo(16, 0xff00ff00, TriStateArray.LEFT, 500);
+        } else {
+            motion.animateTo(144, 0xffff0000, TriStateArray.RIGHT, 500);
+        }
+
+        boolean settled = false;
+        for (int frame = 0; frame < MAX_FRAMES_PER_TOGGLE && !settled; frame++) {
+            frameTime[0] += FRAME_MILLIS;
+            settled = !motion.doFrame(frameTime[0]);
+        }
+        // The clock would drop the settled motion on its next frame, which does not run while
+        // the main thread is busy here.
+        FrameClock.getInstance().remove(motion);
+        return settled;
+    }
+}
@@ -0,0 +1,98 @@
+package jk.android.tristateswitch;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the cost of binding a side against changing it through {@link TriStateSwitch#setSide}
+ * and through the synthetic touch event the old {@code setSide} used to dispatch.
+ * Results are written to logcat under the {@value #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TriStateSwitchBindBenchmark {
+
+    private static final String TAG = "TriStateSwitchBench";
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 160;
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 20000;
+
+    private static final TriStateSwitch.SIDE[] SIDES = TriStateSwitch.SIDE.values();
+
+    @Test
+    public void bindSide_vs_setSide() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TriStateSwitch view = createLaidOutSwitch(context);
+
+                long bind = measure(view, new Operation() {
+                    @Override
+                    public void run(TriStateSwitch view, int i) {
+                        view.bindSide(SIDES[i % SIDES.length]);
+                    }
+                });
+
+                long set = measure(view, new Operation() {
+                    @Override
+                    public void run(TriStateSwitch view, int i) {
+                        view.setSide(SIDES[i % SIDES.length]);
+                    }
+                });
+
+                long touch = measure(view, new Operation() {
+                    @Override
+                    public void run(TriStateSwitch view, int i) {
+                        // What setSide used to do: obtain a synthetic event and hit-test it.
+                        float x = ((i % SIDES.length) * WIDTH / 3f) + (WIDTH / 6f);
+                        MotionEvent event = MotionEvent.obtain(100, 100, MotionEvent.ACTION_UP, x, HEIGHT / 2f, 0);
+                        view.onTouchEvent(event);
+                        event.recycle();
+                    }
+                });
+
+                view.bindSide(TriStateSwitch.SIDE.MIDDLE);
+
+                Log.i(TAG, String.format("bindSide: %d ns/op, setSide: %d ns/op, synthetic touch: %d ns/op",
+                        bind, set, touch));
+            }
+        });
+    }
+
+    private static TriStateSwitch createLaidOutSwitch(Context context) {
+        TriStateSwitch view = new TriStateSwitch(context);
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        view.bindSide(TriStateSwitch.SIDE.MIDDLE);
+        return view;
+    }
+
+    /**
+     * @return the average time of one operation in nanoseconds
+     */
+    private static long measure(TriStateSwitch view, Operation operation) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            operation.run(view, i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run(view, i);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private interface Operation {
+        void run(TriStateSwitch view, int i);
+    }
+}
@@ -0,0 +1,119 @@
+package jk.android.tristateswitch;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the heap retained per {@link TriStateSwitch} for {@value #INSTANCES} laid out
+ * switches of the same style, next to a plain {@link View} as the baseline of the framework
+ * itself. Switches are measured before and after sharing the size tables through the style,
+ * i.e. with a private geometry, track bounds and radii tables per switch and with the shared
+ * ones, and with a callback.
+ * Results are written to logcat under the {@value #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TriStateSwitchMemoryBenchmark {
+
+    private static final String TAG = "TriStateSwitchBench";
+
+    private static final int INSTANCES = 10000;
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 160;
+
+    @Test
+    public void retainedBytesPerInstance() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Warm up the shared style, the render cache and the class loading.
+                createLaidOutSwitch(context);
+
+                long view = measure(new Factory() {
+                    @Override
+                    public View create() {
+                        return new View(context);
+                    }
+                });
+
+                Factory switches = new Factory() {
+                    @Override
+                    public View create() {
+                        return createLaidOutSwitch(context);
+                    }
+                };
+                long shared = measure(switches);
+
+                long unshared;
+                SwitchStyle.sizeTablesShared = false;
+                try {
+                    unshared = measure(switches);
+                } finally {
+                    SwitchStyle.sizeTablesShared = true;
+                }
+
+                final TriStateSwitch.ICallback callback = new TriStateSwitch.ICallback() {
+                    @Override
+                    public void onSideChangeEnded(TriStateSwitch.SIDE side) {
+                    }
+                };
+                long withCallback = measure(new Factory() {
+                    @Override
+                    public View create() {
+                        TriStateSwitch view = createLaidOutSwitch(context);
+                        view.setCallback(callback);
+                        return view;
+                    }
+                });
+
+                Log.i(TAG, String.format("Retained per instance of %d: View %d B, TriStateSwitch before %d B (%d B over View), "
+                                + "after %d B (%d B over View, %d B saved), with callback %d B",
+                        INSTANCES, view, unshared, unshared - view, shared, shared - view, unshared - shared, withCallback));
+            }
+        });
+    }
+
+    /**
+     * @return the bytes retained per instance created by the factory
+     */
+    private static long measure(Factory factory) {
+        long before = usedMemory();
+        View[] views = new View[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            views[i] = factory.create();
+        }
+        long after = usedMemory();
+
+        long perInstance = (after - before) / INSTANCES;
+        views[0].setTag(views);     // keep the views reachable until after the measurement
+        return perInstance;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static TriStateSwitch createLaidOutSwitch(Context context) {
+        TriStateSwitch view = new TriStateSwitch(context);
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        return view;
+    }
+
+    private interface Factory {
+        View create();
+    }
+}
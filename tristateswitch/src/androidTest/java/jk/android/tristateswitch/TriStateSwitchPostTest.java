@@ -0,0 +1,163 @@
+package jk.android.tristateswitch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that sides posted from many threads are coalesced into one change per frame, that
+ * the latest posted side wins and that a side set on the main thread wins over an earlier post.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TriStateSwitchPostTest {
+
+    private static final int THREADS = 8;
+    private static final int POSTS_PER_THREAD = 1000;
+    private static final long TIMEOUT_MILLIS = 2000;
+    private static final long FEW_FRAMES_MILLIS = 100;
+
+    private RecordingSwitch view;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view = new RecordingSwitch(context);
+            }
+        });
+    }
+
+    @Test
+    public void postSide_coalescesPostsFromManyThreads() throws Exception {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < POSTS_PER_THREAD; i++) {
+                        view.postSide(TriStateSwitch.SIDE.values()[(offset + i) % 2], false);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        view.postSide(TriStateSwitch.SIDE.RIGHT, false);
+
+        assertEquals(TriStateSwitch.SIDE.RIGHT, awaitSide(TriStateSwitch.SIDE.RIGHT));
+        assertTrue(view.appliedChanges > 0);
+        assertEquals(1, view.maxChangesPerFrame);
+    }
+
+    @Test
+    public void bindSide_dropsAnEarlierPost() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Posted from a background thread, then bound before the next frame can apply it.
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        view.postSide(TriStateSwitch.SIDE.RIGHT, false);
+                    }
+                });
+                worker.start();
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                view.bindSide(TriStateSwitch.SIDE.LEFT);
+            }
+        });
+
+        // Give the frames a chance to (wrongly) apply the post.
+        Thread.sleep(FEW_FRAMES_MILLIS);
+
+        assertEquals(TriStateSwitch.SIDE.LEFT, getSide());
+        assertEquals(0, view.appliedChanges);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    /**
+     * Polls the side once per frame until it is the expected one or the timeout elapsed.
+     */
+    private TriStateSwitch.SIDE awaitSide(TriStateSwitch.SIDE expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        TriStateSwitch.SIDE side;
+        do {
+            Thread.sleep(16);
+            side = getSide();
+        } while (side != expected && System.currentTimeMillis() < deadline);
+        return side;
+    }
+
+    private TriStateSwitch.SIDE getSide() {
+        final TriStateSwitch.SIDE[] side = new TriStateSwitch.SIDE[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                side[0] = view.getSide();
+            }
+        });
+        return side[0];
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * Counts the posted states applied on the main thread, and the most applied in one frame.
+     * Frames are separate main thread messages, so a message posted to the front of the queue
+     * runs right after the current frame and marks its end.
+     */
+    private static final class RecordingSwitch extends TriStateSwitch {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private final Runnable endOfFrame = new Runnable() {
+            @Override
+            public void run() {
+                changesThisFrame = 0;
+            }
+        };
+
+        volatile int appliedChanges;
+        volatile int maxChangesPerFrame;
+        private int changesThisFrame;
+
+        RecordingSwitch(Context context) {
+            super(context);
+        }
+
+        @Override
+        void applyPendingState() {
+            int before = getPosition();
+            super.applyPendingState();
+            if (getPosition() == before) {
+                return;
+            }
+
+            appliedChanges++;
+            if (changesThisFrame++ == 0) {
+                handler.postAtFrontOfQueue(endOfFrame);
+            }
+            maxChangesPerFrame = Math.max(maxChangesPerFrame, changesThisFrame);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package jk.android.tristateswitch;
+
+import java.util.Arrays;
+
+/**
+ * Maps the sides of a switch to their track colors and blends between them.
+ * <p>
+ * Every (from side, to side) transition has a lookup table of {@link #TABLE_SIZE} colors, so an
+ * animation frame costs one array read instead of a per-channel blend. Tables are built lazily
+ * on first use and rebuilt only after the colors or the blending mode changed.
+ * <p>
+ * By default channels are blended in sRGB space, like {@code ArgbEvaluator}. In linear-light mode
+ * the color channels are blended in linear space, which keeps a blend from a saturated side
+ * color to the neutral gray from passing through a dark, muddy midpoint.
+ * <p>
+ * Colors are plain ARGB ints and sides the int codes of {@link TriStateArray}. This class is
+ * not thread-safe.
+ */
+public final class ColorInterpolator {
+
+    // ******************************************
+
+    /** Number of colors per transition table, the first is the from color and the last the to color. */
+    public static final int TABLE_SIZE = 256;
+
+    private static final int SIDE_COUNT = 3;
+
+    private int leftSideColor;
+    private int neutralColor;
+    private int rightSideColor;
+    private boolean linearLight;
+
+    private final int[][] transitionTables = new int[SIDE_COUNT * SIDE_COUNT][];
+    private final boolean[] validTables = new boolean[SIDE_COUNT * SIDE_COUNT];
+
+    // ******************************************
+
+    public ColorInterpolator(int leftSideColor, int neutralColor, int rightSideColor) {
+        this.leftSideColor = leftSideColor;
+        this.neutralColor = neutralColor;
+        this.rightSideColor = rightSideColor;
+    }
+
+    // ******************************************
+
+    /**
+     * @return the track color of a settled side
+     */
+    public int colorOf(int side) {
+        switch (side) {
+            case TriStateArray.LEFT:
+                return leftSideColor;
+            case TriStateArray.MIDDLE:
+                return neutralColor;
+            case TriStateArray.RIGHT:
+                return rightSideColor;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param fraction how far the transition has progressed, in [0, 1]
+     * @return the track color during a change from {@code fromSide} to {@code toSide}, read
+     * from the transition's lookup table
+     */
+    public int transitionColor(int fromSide, int toSide, float fraction) {
+        int[] table = transitionTable(fromSide, toSide);
+        float clamped = (fraction < 0) ? 0 : ((fraction > 1) ? 1 : fraction);
+        return table[(int) ((clamped * (TABLE_SIZE - 1)) + 0.5f)];
+    }
+
+    /**
+     * @param position the thumb position from the LEFT (0) over the MIDDLE (0.5) to the RIGHT (1) side
+     * @return the track color at that position
+     */
+    public int colorAt(float position) {
+        return (position < 0.5f)
+                ? transitionColor(TriStateArray.LEFT, TriStateArray.MIDDLE, position * 2)
+                : transitionColor(TriStateArray.MIDDLE, TriStateArray.RIGHT, (position - 0.5f) * 2);
+    }
+
+    /**
+     * Blends two arbitrary colors in the current blending mode, for transitions that do not
+     * start on a side color, e.g. a motion retargeted halfway.
+     */
+    public int interpolate(int from, int to, float fraction) {
+        return linearLight ? blendLinear(from, to, fraction) : blend(from, to, fraction);
+    }
+
+    /**
+     * @return the side showing the given color, or -1 if none does
+     */
+    public int sideOf(int color) {
+        for (int side = 0; side < SIDE_COUNT; side++) {
+            if (colorOf(side) == color) {
+                return side;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Blends two ARGB colors channel by channel in sRGB space without boxing.
+     */
+    public static int blend(int from, int to, float fraction) {
+        int a = (from >>> 24) + (int) (((to >>> 24) - (from >>> 24)) * fraction);
+        int r = ((from >> 16) & 0xff) + (int) ((((to >> 16) & 0xff) - ((from >> 16) & 0xff)) * fraction);
+        int g = ((from >> 8) & 0xff) + (int) ((((to >> 8) & 0xff) - ((from >> 8) & 0xff)) * fraction);
+        int b = (from & 0xff) + (int) (((to & 0xff) - (from & 0xff)) * fraction);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Blends two ARGB colors with the color channels in linear light. Alpha is blended linearly.
+     */
+    public static int blendLinear(int from, int to, float fraction) {
+        int a = (from >>> 24) + (int) (((to >>> 24) - (from >>> 24)) * fraction);
+        int r = Gamma.blend((from >> 16) & 0xff, (to >> 16) & 0xff, fraction);
+        int g = Gamma.blend((from >> 8) & 0xff, (to >> 8) & 0xff, fraction);
+        int b = Gamma.blend(from & 0xff, to & 0xff, fraction);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // ******************************************
+    // ****************************************** Getters & Setters
+    // ******************************************
+
+    public int getLeftSideColor() {
+        return leftSideColor;
+    }
+
+    public void setLeftSideColor(int leftSideColor) {
+        if (this.leftSideColor != leftSideColor) {
+            this.leftSideColor = leftSideColor;
+            invalidateTables();
+        }
+    }
+
+    public int getNeutralColor() {
+        return neutralColor;
+    }
+
+    public void setNeutralColor(int neutralColor) {
+        if (this.neutralColor != neutralColor) {
+            this.neutralColor = neutralColor;
+            invalidateTables();
+        }
+    }
+
+    public int getRightSideColor() {
+        return rightSideColor;
+    }
+
+    public void setRightSideColor(int rightSideColor) {
+        if (this.rightSideColor != rightSideColor) {
+            this.rightSideColor = rightSideColor;
+            invalidateTables();
+        }
+    }
+
+    public boolean isLinearLight() {
+        return linearLight;
+    }
+
+    /**
+     * Blends the color channels in linear light instead of sRGB space. Defaults to false.
+     */
+    public void setLinearLight(boolean linearLight) {
+        if (this.linearLight != linearLight) {
+            this.linearLight = linearLight;
+            invalidateTables();
+        }
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private int[] transitionTable(int fromSide, int toSide) {
+        int index = (fromSide * SIDE_COUNT) + toSide;
+        int[] table = transitionTables[index];
+        if (table == null) {
+            table = new int[TABLE_SIZE];
+            transitionTables[index] = table;
+        }
+        if (!validTables[index]) {
+            int from = colorOf(fromSide);
+            int to = colorOf(toSide);
+            for (int i = 1; i < TABLE_SIZE - 1; i++) {
+                table[i] = interpolate(from, to, (float) i / (TABLE_SIZE - 1));
+            }
+            // Exact end points, so a settled transition shows the side color itself.
+            table[0] = from;
+            table[TABLE_SIZE - 1] = to;
+            validTables[index] = true;
+        }
+        return table;
+    }
+
+    /**
+     * Marks all tables for rebuilding; the arrays themselves are reused.
+     */
+    private void invalidateTables() {
+        Arrays.fill(validTables, false);
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * sRGB transfer function tables, only loaded once linear-light blending is used.
+     */
+    private static final class Gamma {
+        private static final int ENCODE_STEPS = 4096;
+
+        /** 8-bit sRGB channel to linear light in [0, 1]. */
+        private static final float[] TO_LINEAR = new float[256];
+        /** Linear light quantized to ENCODE_STEPS steps back to an 8-bit sRGB channel. */
+        private static final byte[] TO_SRGB = new byte[ENCODE_STEPS + 1];
+
+        static {
+            for (int i = 0; i < TO_LINEAR.length; i++) {
+                double c = i / 255.0;
+                TO_LINEAR[i] = (float) ((c <= 0.04045) ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+            }
+            for (int i = 0; i <= ENCODE_STEPS; i++) {
+                double l = (double) i / ENCODE_STEPS;
+                double c = (l <= 0.0031308) ? l * 12.92 : (1.055 * Math.pow(l, 1 / 2.4)) - 0.055;
+                TO_SRGB[i] = (byte) Math.round(c * 255);
+            }
+        }
+
+        static int blend(int from, int to, float fraction) {
+            float linear = TO_LINEAR[from] + ((TO_LINEAR[to] - TO_LINEAR[from]) * fraction);
+            int index = (int) ((linear * ENCODE_STEPS) + 0.5f);
+            return TO_SRGB[(index < 0) ? 0 : ((index > ENCODE_STEPS) ? ENCODE_STEPS : index)] & 0xff;
+        }
+    }
+}
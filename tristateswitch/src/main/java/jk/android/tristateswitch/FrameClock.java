@@ -0,0 +1,167 @@
+package jk.android.tristateswitch;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * A single frame clock shared by all {@link TriStateSwitch} animations of the process.
+ * <p>
+ * Instead of every switch running its own animator, active motions register here and are all
+ * stepped from one frame callback. The clock also caps how many switches may animate at the same
+ * time; switches beyond the cap are expected to snap to their final state.
+ * <p>
+ * Uses {@link Choreographer} on API 16+ and a vsync-approximating handler on older versions.
+ * Must only be used from the main thread.
+ */
+final class FrameClock {
+
+    // ******************************************
+
+    static final int DEFAULT_MAX_CONCURRENT_ANIMATIONS = 64;
+    private static final long FALLBACK_FRAME_DELAY = 16;    // ms
+
+    private static FrameClock instance;
+
+    private final ArrayList<Client> clients = new ArrayList<>();
+    private final Ticker ticker;
+    private int maxConcurrentAnimations = DEFAULT_MAX_CONCURRENT_ANIMATIONS;
+    private boolean frameScheduled;
+
+    // ******************************************
+
+    private FrameClock() {
+        ticker = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                ? new ChoreographerTicker()
+                : new HandlerTicker();
+    }
+
+    static FrameClock getInstance() {
+        if (instance == null) {
+            instance = new FrameClock();
+        }
+        return instance;
+    }
+
+    // ******************************************
+
+    /**
+     * Starts delivering frames to the client until it reports that it is done or is removed.
+     * The caller must not add a client that is already registered.
+     */
+    void add(Client client) {
+        clients.add(client);
+        if (!frameScheduled) {
+            frameScheduled = true;
+            ticker.scheduleFrame();
+        }
+    }
+
+    void remove(Client client) {
+        clients.remove(client);
+    }
+
+    /**
+     * @return whether one more switch may start animating without exceeding the cap
+     */
+    boolean hasCapacity() {
+        return clients.size() < maxConcurrentAnimations;
+    }
+
+    int getActiveCount() {
+        return clients.size();
+    }
+
+    int getMaxConcurrentAnimations() {
+        return maxConcurrentAnimations;
+    }
+
+    void setMaxConcurrentAnimations(int maxConcurrentAnimations) {
+        this.maxConcurrentAnimations = Math.max(maxConcurrentAnimations, 0);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void doFrame(long frameTimeMillis) {
+        frameScheduled = false;
+
+        // Iterate backwards so finished clients can be removed in place without an iterator.
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            if (i >= clients.size()) {
+                // Clients removed by a callback of this frame.
+                continue;
+            }
+            Client client = clients.get(i);
+            if (!client.doFrame(frameTimeMillis)) {
+                // The client may have removed itself already.
+                if (i < clients.size() && clients.get(i) == client) {
+                    clients.remove(i);
+                }
+            }
+        }
+
+        if (!clients.isEmpty() && !frameScheduled) {
+            frameScheduled = true;
+            ticker.scheduleFrame();
+        }
+    }
+
+    // ******************************************
+    // ****************************************** Callbacks & Listeners
+    // ******************************************
+
+    interface Client {
+        /**
+         * Called once per frame while the client is registered.
+         *
+         * @param frameTimeMillis the frame time in milliseconds of a monotonic time base; only
+         *                        differences between frames are meaningful
+         * @return whether the client needs another frame
+         */
+        boolean doFrame(long frameTimeMillis);
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    private interface Ticker {
+        void scheduleFrame();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class ChoreographerTicker implements Ticker, Choreographer.FrameCallback {
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        @Override
+        public void scheduleFrame() {
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            FrameClock.this.doFrame(frameTimeNanos / 1000000);
+        }
+    }
+
+    private final class HandlerTicker implements Ticker, Runnable {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void scheduleFrame() {
+            handler.postDelayed(this, FALLBACK_FRAME_DELAY);
+        }
+
+        @Override
+        public void run() {
+            FrameClock.this.doFrame(SystemClock.uptimeMillis());
+        }
+    }
+}
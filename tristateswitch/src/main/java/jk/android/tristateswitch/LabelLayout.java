@@ -0,0 +1,67 @@
+package jk.android.tristateswitch;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.util.LruCache;
+
+/**
+ * The measurement of a single-line label of a {@link TriStateSwitch}: its characters, its
+ * advance width and the offset of its baseline from its vertical center.
+ * <p>
+ * Measurements are immutable and cached per (text, text size, typeface) for the whole process,
+ * so a label is measured once no matter how many switches show it, possibly on the thread
+ * inflating the layout. Only the measurement is cached: drawing a label is a plain
+ * {@code drawText}, which still shapes the text on every draw, but no {@code measureText} or
+ * font metrics lookup happens during the animation.
+ */
+final class LabelLayout {
+
+    // ******************************************
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final LruCache<String, LabelLayout> CACHE = new LruCache<>(CACHE_SIZE);
+
+    final char[] text;
+    final float width;
+    /** Add to the vertical center of the label to get its baseline. */
+    final float baselineOffset;
+
+    // ******************************************
+
+    private LabelLayout(char[] text, float width, float baselineOffset) {
+        this.text = text;
+        this.width = width;
+        this.baselineOffset = baselineOffset;
+    }
+
+    /**
+     * Returns the layout of a label in the text size and typeface of the given paint, measuring
+     * it on a miss. Thread-safe, as long as the paint is not used by another thread meanwhile.
+     *
+     * @return the layout, or {@code null} for an empty label
+     */
+    static LabelLayout obtain(CharSequence label, Paint paint) {
+        if (label == null || label.length() == 0) {
+            return null;
+        }
+
+        String text = label.toString();
+        String key = paint.getTextSize() + "|" + System.identityHashCode(paint.getTypeface()) + "|" + text;
+        LabelLayout layout = CACHE.get(key);
+        if (layout == null) {
+            Paint.FontMetrics fontMetrics = paint.getFontMetrics();
+            layout = new LabelLayout(text.toCharArray(), paint.measureText(text),
+                    -(fontMetrics.ascent + fontMetrics.descent) / 2);
+            CACHE.put(key, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Draws the label centered on the given point.
+     */
+    void draw(Canvas canvas, float centerX, float centerY, Paint paint) {
+        canvas.drawText(text, 0, text.length, centerX - (width / 2), centerY + baselineOffset, paint);
+    }
+}
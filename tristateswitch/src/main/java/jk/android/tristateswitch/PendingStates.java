@@ -0,0 +1,62 @@
+package jk.android.tristateswitch;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Applies the states posted to switches from any thread on the main thread, once per frame.
+ * <p>
+ * A switch keeps its latest posted state in an atomic state word and is queued here only when
+ * that word goes from empty to pending, so any number of posts between two frames cost one
+ * queue entry and one application per switch. All switches with pending states are applied
+ * by a single {@link FrameClock} callback. Posting is lock-free and nothing here is touched by
+ * the draw path.
+ */
+final class PendingStates implements Runnable, FrameClock.Client {
+
+    // ******************************************
+
+    private static final PendingStates INSTANCE = new PendingStates();
+
+    private final ConcurrentLinkedQueue<TriStateSwitch> views = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // ******************************************
+
+    private PendingStates() {
+    }
+
+    /**
+     * Queues a switch whose state word just became pending. Thread-safe.
+     */
+    static void enqueue(TriStateSwitch view) {
+        INSTANCE.views.offer(view);
+        if (INSTANCE.scheduled.compareAndSet(false, true)) {
+            INSTANCE.handler.post(INSTANCE);
+        }
+    }
+
+    /**
+     * Registers for the next frame, on the main thread.
+     */
+    @Override
+    public void run() {
+        FrameClock.getInstance().add(this);
+    }
+
+    @Override
+    public boolean doFrame(long frameTimeMillis) {
+        // Cleared first, so that a switch queued while draining schedules another frame.
+        scheduled.set(false);
+
+        TriStateSwitch view;
+        while ((view = views.poll()) != null) {
+            view.applyPendingState();
+        }
+        return false;
+    }
+}
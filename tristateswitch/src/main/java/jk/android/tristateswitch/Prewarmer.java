@@ -0,0 +1,88 @@
+package jk.android.tristateswitch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.util.WeakHashMap;
+
+/**
+ * Prepares the first side change of a {@link TriStateSwitch} while the main thread is idle.
+ * <p>
+ * Once the switch is attached and laid out, the motion engine and the shape animator are
+ * created, the color tables are built and every side is drawn once offscreen in every shape,
+ * which loads the classes involved and fills the shared mask cache. Switches of the same style
+ * and size share that work, so only the first of them pays for it. Main thread only.
+ */
+final class Prewarmer implements MessageQueue.IdleHandler {
+
+    // ******************************************
+
+    /** The size (width << 32 | height) each style was prewarmed for. */
+    private static final WeakHashMap<SwitchStyle, Long> PREWARMED = new WeakHashMap<>();
+    private static boolean prewarmedOnce;
+
+    private final TriStateSwitch view;
+    private boolean scheduled;
+
+    // ******************************************
+
+    Prewarmer(TriStateSwitch view) {
+        this.view = view;
+    }
+
+    // ******************************************
+
+    /**
+     * @return whether any switch of the process has been prewarmed
+     */
+    static boolean hasPrewarmed() {
+        return prewarmedOnce;
+    }
+
+    /**
+     * Runs the prewarm the next time the main thread is idle, unless it is already scheduled.
+     */
+    void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    void cancel() {
+        if (scheduled) {
+            scheduled = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        if (width == 0 || height == 0) {
+            // Not laid out yet, the layout pass makes the queue idle again.
+            return true;
+        }
+
+        SwitchStyle style = view.getStyle();
+        long size = ((long) width << 32) | height;
+        Long prewarmedSize = PREWARMED.get(style);
+        if (prewarmedSize == null || prewarmedSize != size) {
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            boolean done = view.prewarm(new Canvas(bitmap));
+            bitmap.recycle();
+            if (!done) {
+                // The switch is animating, try again when it settled.
+                return true;
+            }
+            PREWARMED.put(style, size);
+            prewarmedOnce = true;
+        }
+
+        scheduled = false;
+        return false;
+    }
+}
@@ -0,0 +1,206 @@
+package jk.android.tristateswitch;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.support.v4.util.LruCache;
+
+/**
+ * Process-wide LRU cache of pre-rasterized track and thumb shapes, shared by all
+ * {@link TriStateSwitch} instances.
+ * <p>
+ * Shapes are stored as anti-aliased {@link Bitmap.Config#ALPHA_8} masks keyed by
+ * (width, height, thumb shape, corner radius). The color is applied by the paint when the mask
+ * is drawn, so switches that only differ in color (or whose track color is animating) still
+ * share the same entry. Switches of the same size and shape rasterize their shapes once for the
+ * whole list and draw a single bitmap per shape afterwards.
+ * <p>
+ * Thumb shadows are cached the same way: the outline is blurred once in software, where
+ * {@link BlurMaskFilter} is always supported, so the switch itself stays hardware-accelerated
+ * and draws its shadow as one bitmap.
+ * <p>
+ * The cache is trimmed when the system reports memory pressure.
+ */
+public final class RenderCache implements ComponentCallbacks2 {
+
+    // ******************************************
+
+    private static final int DEFAULT_MEMORY_BUDGET = 1024 * 1024;  // 1 MB
+    /** Corner radii are quantized to 1/16 px in the key. */
+    private static final int RADIUS_PRECISION = 16;
+    /** ... and to 1/4 px in the key of a shadow, which has less room. */
+    private static final int SHADOW_RADIUS_PRECISION = 4;
+    private static final long SHADOW_FLAG = 1L << 31;
+
+    private static RenderCache instance;
+
+    private final LruCache<Long, Bitmap> masks;
+    private final Paint maskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint shadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF maskBounds = new RectF();
+
+    // ******************************************
+
+    private RenderCache(int memoryBudget) {
+        masks = new LruCache<Long, Bitmap>(memoryBudget) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all switches of the process
+     */
+    public static synchronized RenderCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new RenderCache(DEFAULT_MEMORY_BUDGET);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    // ******************************************
+
+    /**
+     * Returns the mask of a rounded rectangle, rasterizing it on a miss.
+     * Evicted masks are not recycled since switches may still hold on to them; they are simply
+     * released to the garbage collector once no switch uses them anymore.
+     *
+     * @return the mask, or {@code null} if the size is empty or exceeds the memory budget
+     */
+    Bitmap getShapeMask(int width, int height, int thumbShape, float radius) {
+        if (width <= 0 || height <= 0 || (width * height) > masks.maxSize()) {
+            return null;
+        }
+
+        Long key = key(width, height, thumbShape, radius);
+        Bitmap mask = masks.get(key);
+        if (mask == null) {
+            mask = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            maskBounds.set(0, 0, width, height);
+            new Canvas(mask).drawRoundRect(maskBounds, radius, radius, maskPaint);
+            masks.put(key, mask);
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the blurred mask of a rounded rectangle, rasterizing it on a miss. The mask is
+     * larger than the shape by {@link #getShadowPadding(float)} on every side.
+     *
+     * @param blurRadius the blur radius, rounded to whole px
+     * @return the mask, or {@code null} if the size is empty or exceeds the memory budget
+     */
+    Bitmap getShadowMask(int width, int height, int thumbShape, float radius, float blurRadius) {
+        int padding = getShadowPadding(blurRadius);
+        int maskWidth = width + (2 * padding);
+        int maskHeight = height + (2 * padding);
+        if (width <= 0 || height <= 0 || (maskWidth * maskHeight) > masks.maxSize()) {
+            return null;
+        }
+
+        Long key = shadowKey(width, height, thumbShape, radius, padding);
+        Bitmap mask = masks.get(key);
+        if (mask == null) {
+            mask = Bitmap.createBitmap(maskWidth, maskHeight, Bitmap.Config.ALPHA_8);
+            // Set on every miss, the shared paint still holds the blur of the previous mask.
+            shadowPaint.setMaskFilter((padding > 0) ? new BlurMaskFilter(padding, BlurMaskFilter.Blur.NORMAL) : null);
+            maskBounds.set(padding, padding, padding + width, padding + height);
+            new Canvas(mask).drawRoundRect(maskBounds, radius, radius, shadowPaint);
+            masks.put(key, mask);
+        }
+        return mask;
+    }
+
+    /**
+     * @return how far a shadow mask extends beyond its shape on every side, in px
+     */
+    static int getShadowPadding(float blurRadius) {
+        return Math.min(Math.round(blurRadius), 0xff);
+    }
+
+    /**
+     * Sets the maximum number of bytes the cached shapes may occupy.
+     */
+    public void setMemoryBudget(int bytes) {
+        masks.resize(bytes);
+    }
+
+    public int getMemoryBudget() {
+        return masks.maxSize();
+    }
+
+    /**
+     * @return the number of bytes currently occupied by cached shapes
+     */
+    public int getSize() {
+        return masks.size();
+    }
+
+    public int getHitCount() {
+        return masks.hitCount();
+    }
+
+    public int getMissCount() {
+        return masks.missCount();
+    }
+
+    public int getEvictionCount() {
+        return masks.evictionCount();
+    }
+
+    public void clear() {
+        masks.evictAll();
+    }
+
+    // ******************************************
+    // ****************************************** Callbacks & Listeners
+    // ******************************************
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            masks.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            masks.trimToSize(masks.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        masks.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private static long key(int width, int height, int thumbShape, float radius) {
+        long quantizedRadius = (long) (radius * RADIUS_PRECISION) & 0xffffffL;
+        return (((long) width & 0xffff) << 48)
+                | (((long) height & 0xffff) << 32)
+                | (((long) thumbShape & 0x7f) << 24)
+                | quantizedRadius;
+    }
+
+    private static long shadowKey(int width, int height, int thumbShape, float radius, int padding) {
+        long quantizedRadius = (long) (radius * SHADOW_RADIUS_PRECISION) & 0xffffL;
+        return (((long) width & 0xffff) << 48)
+                | (((long) height & 0xffff) << 32)
+                | SHADOW_FLAG
+                | (((long) thumbShape & 0x7f) << 24)
+                | (((long) padding & 0xff) << 16)
+                | quantizedRadius;
+    }
+}
@@ -0,0 +1,126 @@
+package jk.android.tristateswitch;
+
+/**
+ * Rendering counters of a single {@link TriStateSwitch}, used to check how much of the view
+ * is redrawn per animation frame.
+ * <p>
+ * The pixel counts are those actually redrawn, not those requested: a moving thumb only
+ * limits the redraw to its own area with software rendering and before API 21. Hardware
+ * accelerated rendering on API 21+ ignores dirty rects, so every frame counts the whole view
+ * there. A side change between sides of different colors redraws the whole track in any case.
+ * <p>
+ * The static {@link #getFirstToggleFrameTimeNanos()} measures the first side change of the
+ * process, which pays for class loading, the creation of the motion engine and the first
+ * masks unless the switch was prewarmed, see {@link TriStateSwitch#setPrewarmEnabled(boolean)}.
+ */
+public final class RenderStats {
+
+    // ******************************************
+
+    private long invalidationCount;
+    private long pixelsInvalidated;
+    private int lastPixelsInvalidated;
+
+    // The first side change of the process, main thread only.
+    private static long firstToggleWorkNanos = -1;
+    private static long firstToggleFrameTimeNanos = -1;
+    private static boolean firstTogglePrewarmed;
+
+    // ******************************************
+
+    RenderStats() {
+    }
+
+    // ******************************************
+
+    /**
+     * @return whether the first side change of the process has not started yet
+     */
+    static boolean isFirstTogglePending() {
+        return firstToggleWorkNanos < 0;
+    }
+
+    /**
+     * @return whether the first side change started and its frame has not been drawn yet
+     */
+    static boolean isFirstToggleFramePending() {
+        return (firstToggleWorkNanos >= 0) && (firstToggleFrameTimeNanos < 0);
+    }
+
+    /**
+     * @param workNanos the time the side change itself took, before its first frame
+     */
+    static void recordFirstToggle(long workNanos, boolean prewarmed) {
+        firstToggleWorkNanos = workNanos;
+        firstTogglePrewarmed = prewarmed;
+    }
+
+    static void recordFirstToggleFrame(long drawNanos) {
+        firstToggleFrameTimeNanos = firstToggleWorkNanos + drawNanos;
+    }
+
+    void recordInvalidation(int left, int top, int right, int bottom) {
+        int pixels = Math.max(right - left, 0) * Math.max(bottom - top, 0);
+        invalidationCount++;
+        pixelsInvalidated += pixels;
+        lastPixelsInvalidated = pixels;
+    }
+
+    // ******************************************
+    // ****************************************** Getters & Setters
+    // ******************************************
+
+    /**
+     * @return the number of invalidations requested by the switch, one per animation frame
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @return the total number of pixels redrawn since the last {@link #reset()}
+     */
+    public long getPixelsInvalidated() {
+        return pixelsInvalidated;
+    }
+
+    /**
+     * @return the number of pixels redrawn by the most recent frame
+     */
+    public int getLastPixelsInvalidated() {
+        return lastPixelsInvalidated;
+    }
+
+    /**
+     * @return the main thread time of the first side change of the process, from the call
+     * that changed the side up to the end of the first frame drawn after it, or -1 if not
+     * measured yet. Compare runs with and without prewarming.
+     */
+    public static long getFirstToggleFrameTimeNanos() {
+        return firstToggleFrameTimeNanos;
+    }
+
+    /**
+     * @return whether a switch had been prewarmed before the first side change of the process
+     */
+    public static boolean isFirstTogglePrewarmed() {
+        return firstTogglePrewarmed;
+    }
+
+    public float getAveragePixelsPerInvalidation() {
+        return (invalidationCount == 0) ? 0 : ((float) pixelsInvalidated / invalidationCount);
+    }
+
+    public void reset() {
+        invalidationCount = 0;
+        pixelsInvalidated = 0;
+        lastPixelsInvalidated = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderStats{invalidations=" + invalidationCount
+                + ", pixels=" + pixelsInvalidated
+                + ", lastPixels=" + lastPixelsInvalidated + "}";
+    }
+}
@@ -0,0 +1,132 @@
+package jk.android.tristateswitch;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+import android.util.AttributeSet;
+
+/**
+ * A switch whose thumb rests on any of {@code positionCount} evenly spaced positions, e.g. a
+ * 5-level priority slider. It shares the rendering, the motion and the style attributes of
+ * {@link TriStateSwitch}; with three positions both behave the same.
+ * <p>
+ * Positions are indices from 0 (left) to {@code positionCount - 1} (right). The track color of
+ * a position is blended from the left, neutral and right colors according to where the
+ * position lies on the track. The segment boundaries and thumb destinations are precomputed
+ * whenever the size changes, so a tap is resolved by a binary search.
+ * <p>
+ * The side API inherited from {@link TriStateSwitch} maps LEFT to the first position, RIGHT to
+ * the last and MIDDLE to the middle one; callbacks receive the exact position through
+ * {@link TriStateSwitch.ICallback#onPositionChangeEnded(int)}. Labels are not drawn unless
+ * there are three positions.
+ */
+public class SegmentedSwitch extends TriStateSwitch {
+
+    // ******************************************
+
+    /** The most positions a switch can have; positions are stored in 12 bits by the saved state. */
+    public static final int MAX_POSITION_COUNT = 4095;
+
+    private static final int DEFAULT_POSITION_COUNT = 5;
+
+    // ******************************************
+
+    public SegmentedSwitch(Context context) {
+        this(context, null);
+    }
+
+    public SegmentedSwitch(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, R.attr.triStateSwitchStyle);
+    }
+
+    public SegmentedSwitch(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context, attrs, defStyleAttr, R.style.Widget_TriStateSwitch);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public SegmentedSwitch(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        init(context, attrs, defStyleAttr, defStyleRes);
+    }
+
+    // ******************************************
+
+    private void init(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        int positionCount = DEFAULT_POSITION_COUNT;
+        TypedArray typedArray = context.getTheme().obtainStyledAttributes(attrs, R.styleable.SegmentedSwitch, defStyleAttr, defStyleRes);
+        try {
+            positionCount = typedArray.getInteger(R.styleable.SegmentedSwitch_positionCount, positionCount);
+        } finally {
+            typedArray.recycle();
+        }
+        setPositionCount(positionCount);
+    }
+
+    // ******************************************
+    // ****************************************** Getters & Setters
+    // ******************************************
+
+    /**
+     * @return the position the thumb rests on, or is heading to
+     */
+    public int getPosition() {
+        return super.getPosition();
+    }
+
+    /**
+     * Moves the thumb to the given position, animated like {@link #setSide(SIDE)}.
+     */
+    public void setPosition(int position) {
+        checkPosition(position);
+        animateToPosition(position);
+    }
+
+    /**
+     * Shows the given position immediately, e.g. when an adapter binds a recycled row; see
+     * {@link #bindSide(SIDE)}.
+     */
+    public void bindPosition(int position) {
+        checkPosition(position);
+        jumpToPosition(position);
+    }
+
+    /**
+     * Requests a position change from any thread; requests made between two frames are
+     * coalesced into one change on the main thread, see {@link #postSide(SIDE, boolean)}.
+     * A request for a position that no longer exists when it is applied is dropped.
+     *
+     * @param animate whether to animate like {@link #setPosition(int)} or to jump like
+     *                {@link #bindPosition(int)}
+     */
+    public void postPosition(int position, boolean animate) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Invalid position: " + position);
+        }
+        postState(position, false, animate);
+    }
+
+    /**
+     * Changes the number of positions and shows the middle one, without animating.
+     *
+     * @param positionCount at least 2 and at most {@link #MAX_POSITION_COUNT}
+     */
+    public void setPositionCount(int positionCount) {
+        if (positionCount < 2 || positionCount > MAX_POSITION_COUNT) {
+            throw new IllegalArgumentException("Invalid position count: " + positionCount);
+        }
+        changePositionCount(positionCount);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= getPositionCount()) {
+            throw new IllegalArgumentException("Invalid position: " + position);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package jk.android.tristateswitch;
+
+/**
+ * Morphs the track and thumb outlines of a switch between shape presets.
+ * <p>
+ * Both outlines are rounded rectangles, so a shape is fully described by the corner radius of
+ * the track and of the thumb. A preset defines each radius as a fixed size plus a roundness,
+ * the fraction of half the shorter side that is added on top, so one preset fits every switch
+ * size. The radii of all presets are precomputed whenever the size changes; a morph frame is
+ * then a single linear interpolation per outline, which also works from a morph that was
+ * interrupted halfway.
+ * <p>
+ * Presets are shared by the whole process and identified by their index. This class is not
+ * thread-safe.
+ */
+public final class ShapeMorph {
+
+    // ******************************************
+
+    /** Rounded corners of a fixed 32 px radius. */
+    public static final int RECTANGLE = 0;
+    /** Fully round ends: a pill shaped track and a round thumb. */
+    public static final int CIRCLE = 1;
+    /** Sharp corners. */
+    public static final int SQUARE = 2;
+    /** Corners rounded by half of the way to a circle. */
+    public static final int ROUNDED = 3;
+
+    /**
+     * The number of presets a process can have. Preset ids are stored in 7 bits by the
+     * {@link RenderCache} keys and in the saved state of a switch.
+     */
+    public static final int MAX_PRESETS = 128;
+
+    /** Per preset: track radius, track roundness, thumb radius, thumb roundness. */
+    private static final int PRESET_STRIDE = 4;
+
+    private static float[] presets = {
+            32, 0, 32, 0,       // RECTANGLE
+            0, 1, 0, 1,         // CIRCLE
+            0, 0, 0, 0,         // SQUARE
+            0, 0.5f, 0, 0.5f    // ROUNDED
+    };
+    private static int presetCount = 4;
+
+    private Radii radii = Radii.EMPTY;     // may be shared with other morphs of the same size
+
+    private int shape = RECTANGLE;
+    private float fromTrackRadius, fromThumbRadius;
+    private float fraction = 1;
+
+    // ******************************************
+
+    /**
+     * Adds a shape preset for all switches of the process.
+     *
+     * @param trackCornerRadius the fixed part of the track corner radius, in px
+     * @param trackRoundness    the fraction of half the shorter track side added to its radius, 1 is fully round
+     * @param thumbCornerRadius the fixed part of the thumb corner radius, in px
+     * @param thumbRoundness    the fraction of half the shorter thumb side added to its radius, 1 is fully round
+     * @return the id of the new preset
+     * @throws IllegalStateException if {@link #MAX_PRESETS} presets exist already
+     */
+    public static int addPreset(float trackCornerRadius, float trackRoundness, float thumbCornerRadius, float thumbRoundness) {
+        if (presetCount == MAX_PRESETS) {
+            throw new IllegalStateException("Too many shape presets, the maximum is " + MAX_PRESETS);
+        }
+        if (presetCount * PRESET_STRIDE == presets.length) {
+            float[] grown = new float[presets.length * 2];
+            System.arraycopy(presets, 0, grown, 0, presets.length);
+            presets = grown;
+        }
+        int offset = presetCount * PRESET_STRIDE;
+        presets[offset] = trackCornerRadius;
+        presets[offset + 1] = trackRoundness;
+        presets[offset + 2] = thumbCornerRadius;
+        presets[offset + 3] = thumbRoundness;
+        return presetCount++;
+    }
+
+    public static int getPresetCount() {
+        return presetCount;
+    }
+
+    public static boolean isPreset(int shape) {
+        return (shape >= 0) && (shape < presetCount);
+    }
+
+    // ******************************************
+
+    /**
+     * Precomputes the radii of every preset for the given outline sizes.
+     */
+    public void layout(float trackWidth, float trackHeight, float thumbWidth, float thumbHeight) {
+        radii = new Radii(trackWidth, trackHeight, thumbWidth, thumbHeight);
+    }
+
+    /**
+     * Adopts radii computed before, e.g. by another switch of the same size and style.
+     */
+    void layout(Radii radii) {
+        this.radii = radii;
+    }
+
+    /**
+     * Shows the given preset immediately, ending a running morph.
+     */
+    public void setShape(int shape) {
+        checkShape(shape);
+        this.shape = shape;
+        this.fraction = 1;
+    }
+
+    /**
+     * Starts a morph from the current outlines, possibly halfway through another morph,
+     * towards the given preset. Drive it with {@link #setFraction(float)}.
+     */
+    public void morphTo(int shape) {
+        checkShape(shape);
+        fromTrackRadius = getTrackRadius();
+        fromThumbRadius = getThumbRadius();
+        this.shape = shape;
+        this.fraction = 0;
+    }
+
+    /**
+     * @param fraction how far the running morph has progressed, in [0, 1]
+     */
+    public void setFraction(float fraction) {
+        this.fraction = (fraction < 0) ? 0 : ((fraction > 1) ? 1 : fraction);
+    }
+
+    public boolean isMorphing() {
+        return fraction < 1;
+    }
+
+    // ******************************************
+    // ****************************************** Getters & Setters
+    // ******************************************
+
+    /**
+     * @return the preset shown, or being morphed to
+     */
+    public int getShape() {
+        return shape;
+    }
+
+    public float getTrackRadius() {
+        float target = ensureRadii().track[shape];
+        return (fraction >= 1) ? target : fromTrackRadius + ((target - fromTrackRadius) * fraction);
+    }
+
+    public float getThumbRadius() {
+        float target = ensureRadii().thumb[shape];
+        return (fraction >= 1) ? target : fromThumbRadius + ((target - fromThumbRadius) * fraction);
+    }
+
+    /**
+     * @return the thumb radius of the preset shown, or being morphed to
+     */
+    public float getTargetThumbRadius() {
+        return ensureRadii().thumb[shape];
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private Radii ensureRadii() {
+        if (shape >= radii.track.length) {
+            // A preset was added after the last layout; the shared radii are left alone.
+            radii = new Radii(radii.trackWidth, radii.trackHeight, radii.thumbWidth, radii.thumbHeight);
+        }
+        return radii;
+    }
+
+    private static void checkShape(int shape) {
+        if (!isPreset(shape)) {
+            throw new IllegalArgumentException("Invalid shape: " + shape);
+        }
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * The corner radii of every preset for one track and thumb size. Immutable, so switches of
+     * the same size and style share one instance.
+     */
+    static final class Radii {
+        static final Radii EMPTY = new Radii(0, 0, 0, 0);
+
+        final float trackWidth, trackHeight, thumbWidth, thumbHeight;
+        final float[] track;
+        final float[] thumb;
+
+        Radii(float trackWidth, float trackHeight, float thumbWidth, float thumbHeight) {
+            this.trackWidth = trackWidth;
+            this.trackHeight = trackHeight;
+            this.thumbWidth = thumbWidth;
+            this.thumbHeight = thumbHeight;
+
+            int count = presetCount;
+            track = new float[count];
+            thumb = new float[count];
+            float halfTrack = Math.min(trackWidth, trackHeight) / 2;
+            float halfThumb = Math.min(thumbWidth, thumbHeight) / 2;
+            for (int i = 0; i < count; i++) {
+                int offset = i * PRESET_STRIDE;
+                track[i] = Math.min(presets[offset] + (presets[offset + 1] * halfTrack), halfTrack);
+                thumb[i] = Math.min(presets[offset + 2] + (presets[offset + 3] * halfThumb), halfThumb);
+            }
+        }
+
+        /**
+         * @return whether no preset was added since these radii were computed
+         */
+        boolean isCurrent() {
+            return track.length == presetCount;
+        }
+    }
+}
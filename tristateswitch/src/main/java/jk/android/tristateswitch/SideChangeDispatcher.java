@@ -0,0 +1,243 @@
+package jk.android.tristateswitch;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the side change events of one {@link TriStateSwitch} to any number of callbacks.
+ * Sides are passed around as position indices, -1 for none, and only turned into a
+ * {@link TriStateSwitch.SIDE} by the {@link Notifier}, so a {@link SegmentedSwitch} can report
+ * any position.
+ * <p>
+ * The dispatcher does not depend on the Android framework: the switch supplies the frame
+ * scheduling ({@code ViewCompat.postOnAnimation}) and the notifier calling its
+ * {@link TriStateSwitch.ICallback}s, so the benchmarks can run this very class.
+ * <p>
+ * Events are coalesced per frame: however many side changes start within a frame, callbacks see
+ * a single start event for the latest side, followed by its end event once the thumb settled. An
+ * end event is dropped if another change started after it in the same frame. Callbacks are
+ * delivered on the main thread on the next animation frame, or on their own {@link Executor}
+ * so that heavy work (persistence, network) never blocks drawing. Callbacks may be added and
+ * removed at any time, also from within a callback.
+ */
+final class SideChangeDispatcher<C> implements Runnable {
+
+    // ******************************************
+
+    private final FrameScheduler scheduler;
+    private final Notifier<C> notifier;
+    private final CopyOnWriteArrayList<Registration<C>> registrations = new CopyOnWriteArrayList<>();
+
+    private int pendingStarted = -1;
+    private int pendingEnded = -1;
+    private int pendingPositionCount;
+    private boolean flushScheduled;
+
+    // ******************************************
+
+    SideChangeDispatcher(FrameScheduler scheduler, Notifier<C> notifier) {
+        this.scheduler = scheduler;
+        this.notifier = notifier;
+    }
+
+    // ******************************************
+
+    void add(C callback, Executor executor) {
+        registrations.add(new Registration<>(callback, executor, notifier));
+    }
+
+    void remove(C callback) {
+        for (Registration<C> registration : registrations) {
+            if (registration.callback == callback) {
+                registrations.remove(registration);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param positionCount the number of positions of the switch, for mapping the side to a
+     *                      {@link TriStateSwitch.SIDE}
+     */
+    void dispatchStarted(int side, int positionCount) {
+        if (registrations.isEmpty()) {
+            return;
+        }
+        pendingStarted = side;
+        pendingEnded = -1;
+        pendingPositionCount = positionCount;
+        scheduleFlush();
+    }
+
+    void dispatchEnded(int side, int positionCount) {
+        if (registrations.isEmpty()) {
+            return;
+        }
+        pendingEnded = side;
+        pendingPositionCount = positionCount;
+        scheduleFlush();
+    }
+
+    /**
+     * Drops the events not delivered yet, e.g. those of the item previously bound to a recycled
+     * switch, so that callbacks never see a start without its end.
+     */
+    void clear() {
+        pendingStarted = -1;
+        pendingEnded = -1;
+        for (Registration<C> registration : registrations) {
+            registration.clear();
+        }
+    }
+
+    /**
+     * Delivers the events coalesced during the last frame.
+     */
+    @Override
+    public void run() {
+        flushScheduled = false;
+
+        int started = pendingStarted;
+        int ended = pendingEnded;
+        pendingStarted = -1;
+        pendingEnded = -1;
+
+        if (started < 0 && ended < 0) {
+            // Everything was cleared since the flush was scheduled.
+            return;
+        }
+        int positionCount = pendingPositionCount;
+        for (Registration<C> registration : registrations) {
+            registration.deliver(started, ended, positionCount);
+        }
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.postOnNextFrame(this);
+        }
+    }
+
+    // ******************************************
+    // ****************************************** Callbacks & Listeners
+    // ******************************************
+
+    interface FrameScheduler {
+        /**
+         * Runs the task on the main thread on the next animation frame.
+         */
+        void postOnNextFrame(Runnable task);
+    }
+
+    interface Notifier<C> {
+        /**
+         * Hands coalesced events to a callback.
+         *
+         * @param started the position a change started to, or -1
+         * @param ended   the position a change ended on, or -1
+         */
+        void notify(C callback, int started, int ended, int positionCount);
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * A callback together with the executor it wants its events on. Events handed to an
+     * executor are coalesced as well: while a delivery is pending, newer events replace the
+     * pending ones instead of queueing another task.
+     * <p>
+     * The pending start, end and position count are packed into a single atomic word, 16 bits
+     * each with the sides stored plus one so that 0 means none. The executor swaps the whole
+     * word out at once, so it never pairs a new start with a stale end.
+     */
+    private static final class Registration<C> implements Runnable {
+        private static final long NONE = 0;
+        private static final int FIELD_BITS = 16;
+        private static final long FIELD_MASK = (1L << FIELD_BITS) - 1;
+
+        final C callback;
+        final Executor executor;
+        private final Notifier<C> notifier;
+
+        private final AtomicLong pending = new AtomicLong(NONE);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Registration(C callback, Executor executor, Notifier<C> notifier) {
+            this.callback = callback;
+            this.executor = executor;
+            this.notifier = notifier;
+        }
+
+        void deliver(int started, int ended, int positionCount) {
+            if (executor == null) {
+                notifier.notify(callback, started, ended, positionCount);
+                return;
+            }
+
+            long current;
+            long update;
+            do {
+                current = pending.get();
+                int pendingStarted = startedOf(current);
+                int pendingEnded = endedOf(current);
+                if (started >= 0) {
+                    pendingStarted = started;
+                    pendingEnded = -1;
+                }
+                if (ended >= 0) {
+                    pendingEnded = ended;
+                }
+                update = pack(pendingStarted, pendingEnded, positionCount);
+            } while (!pending.compareAndSet(current, update));
+
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        void clear() {
+            pending.set(NONE);
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            long events = pending.getAndSet(NONE);
+            if (events == NONE) {
+                // Cleared, or already delivered by a previous run.
+                return;
+            }
+            notifier.notify(callback, startedOf(events), endedOf(events), positionCountOf(events));
+        }
+
+        private static long pack(int started, int ended, int positionCount) {
+            if (started < 0 && ended < 0) {
+                return NONE;
+            }
+            return ((started + 1) & FIELD_MASK)
+                    | (((ended + 1) & FIELD_MASK) << FIELD_BITS)
+                    | ((positionCount & FIELD_MASK) << (2 * FIELD_BITS));
+        }
+
+        private static int startedOf(long events) {
+            return (int) (events & FIELD_MASK) - 1;
+        }
+
+        private static int endedOf(long events) {
+            return (int) ((events >>> FIELD_BITS) & FIELD_MASK) - 1;
+        }
+
+        private static int positionCountOf(long events) {
+            return (int) ((events >>> (2 * FIELD_BITS)) & FIELD_MASK);
+        }
+    }
+}
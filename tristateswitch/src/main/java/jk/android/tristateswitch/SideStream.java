@@ -0,0 +1,297 @@
+package jk.android.tristateswitch;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * A stream of settled sides built on top of the side change events of a {@link TriStateSwitch},
+ * meant for side effects such as a backend sync where only the final state matters.
+ * <p>
+ * Values pass through these stages:
+ * <ol>
+ * <li><b>debounce</b>: a side is only emitted after no other side arrived for the debounce time;</li>
+ * <li><b>distinct until changed</b>: a side equal to the one the subscriber will have seen
+ * last, i.e. the newest buffered side or else the last delivered one, is dropped;</li>
+ * <li><b>buffer</b>: while the subscriber is still busy with a previous value, new values wait in
+ * a bounded buffer; when it is full the {@link OverflowPolicy} decides which value is dropped.
+ * A capacity of 1 with {@link OverflowPolicy#DROP_OLDEST} conflates pending values so the
+ * subscriber only ever sees the latest one.</li>
+ * </ol>
+ * Time is taken from a {@link Scheduler}, so the stream can be driven by a virtual clock in
+ * local unit tests.
+ * <pre>
+ * SideStream stream = new SideStream.Builder()
+ *         .debounce(300)
+ *         .deliverOn(ioExecutor)
+ *         .build(new SideStream.Subscriber() { ... });
+ * stream.attach(triStateSwitch);
+ * </pre>
+ */
+public final class SideStream extends TriStateSwitch.ICallback {
+
+    // ******************************************
+
+    public enum OverflowPolicy {
+        /** Drop the oldest buffered value, the latest value always wins. */
+        DROP_OLDEST,
+        /** Drop the incoming value, the buffered values are kept. */
+        DROP_NEWEST
+    }
+
+    private final Subscriber subscriber;
+    private final Scheduler scheduler;
+    private final Executor deliveryExecutor;
+    private final long debounceMillis;
+    private final boolean distinctUntilChanged;
+    private final int bufferCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ArrayDeque<TriStateSwitch.SIDE> buffer;
+    private final Runnable debounceTask = new Runnable() {
+        @Override
+        public void run() {
+            onDebounceElapsed();
+        }
+    };
+    private final Runnable deliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            deliverNext();
+        }
+    };
+
+    private TriStateSwitch.SIDE debouncedSide;
+    private TriStateSwitch.SIDE lastDeliveredSide;
+    private boolean delivering;
+
+    // ******************************************
+
+    private SideStream(Builder builder, Subscriber subscriber) {
+        this.subscriber = subscriber;
+        this.scheduler = (builder.scheduler != null) ? builder.scheduler : new MainThreadScheduler();
+        this.deliveryExecutor = builder.deliveryExecutor;
+        this.debounceMillis = builder.debounceMillis;
+        this.distinctUntilChanged = builder.distinctUntilChanged;
+        this.bufferCapacity = builder.bufferCapacity;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.buffer = new ArrayDeque<>(bufferCapacity);
+    }
+
+    // ******************************************
+
+    /**
+     * Starts listening to the settled sides of the given switch.
+     */
+    public void attach(TriStateSwitch view) {
+        view.addCallback(this);
+    }
+
+    public void detach(TriStateSwitch view) {
+        view.removeCallback(this);
+    }
+
+    /**
+     * Feeds a side into the stream. Called for every settled side of an attached switch, but can
+     * also be used directly.
+     */
+    public void emit(TriStateSwitch.SIDE side) {
+        synchronized (this) {
+            if (debounceMillis <= 0) {
+                accept(side);
+            } else {
+                debouncedSide = side;
+                scheduler.cancel(debounceTask);
+                scheduler.schedule(debounceTask, debounceMillis);
+                return;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Drops pending values and stops a running debounce. A delivery already in progress
+     * still completes.
+     */
+    public synchronized void cancel() {
+        scheduler.cancel(debounceTask);
+        debouncedSide = null;
+        buffer.clear();
+    }
+
+    @Override
+    public void onSideChangeEnded(TriStateSwitch.SIDE side) {
+        emit(side);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void onDebounceElapsed() {
+        synchronized (this) {
+            if (debouncedSide == null) {
+                return;
+            }
+            accept(debouncedSide);
+            debouncedSide = null;
+        }
+        drain();
+    }
+
+    /**
+     * Applies distinct-until-changed and the buffer policy. Must hold the lock.
+     */
+    private void accept(TriStateSwitch.SIDE side) {
+        if (distinctUntilChanged && side == previousSide()) {
+            return;
+        }
+        if (buffer.size() >= bufferCapacity) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                return;
+            }
+            buffer.pollFirst();
+            // The evicted side may have been the only one between this side and an equal one.
+            if (distinctUntilChanged && side == previousSide()) {
+                return;
+            }
+        }
+        buffer.addLast(side);
+    }
+
+    /**
+     * @return the side the subscriber sees right before a newly buffered one. Must hold the lock.
+     */
+    private TriStateSwitch.SIDE previousSide() {
+        TriStateSwitch.SIDE newest = buffer.peekLast();
+        return (newest != null) ? newest : lastDeliveredSide;
+    }
+
+    private void drain() {
+        synchronized (this) {
+            if (delivering || buffer.isEmpty()) {
+                return;
+            }
+            delivering = true;
+        }
+        if (deliveryExecutor != null) {
+            deliveryExecutor.execute(deliveryTask);
+        } else {
+            deliverNext();
+        }
+    }
+
+    private void deliverNext() {
+        while (true) {
+            TriStateSwitch.SIDE side;
+            synchronized (this) {
+                side = buffer.pollFirst();
+                if (side == null) {
+                    delivering = false;
+                    return;
+                }
+                lastDeliveredSide = side;
+            }
+            subscriber.onSide(side);
+        }
+    }
+
+    // ******************************************
+    // ****************************************** Callbacks & Listeners
+    // ******************************************
+
+    public interface Subscriber {
+        /**
+         * Receives a settled side. Values are delivered one at a time; while this method runs,
+         * newer values are buffered according to the stream's {@link OverflowPolicy}.
+         */
+        void onSide(TriStateSwitch.SIDE side);
+    }
+
+    /**
+     * The time source of a stream.
+     */
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    public static final class Builder {
+        private long debounceMillis;
+        private boolean distinctUntilChanged = true;
+        private int bufferCapacity = 1;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private Scheduler scheduler;
+        private Executor deliveryExecutor;
+
+        /**
+         * Only emit a side once no other side arrived for the given time. Defaults to 0 (off).
+         */
+        public Builder debounce(long millis) {
+            this.debounceMillis = millis;
+            return this;
+        }
+
+        /**
+         * Drop sides equal to the previously emitted one. Defaults to true.
+         */
+        public Builder distinctUntilChanged(boolean distinctUntilChanged) {
+            this.distinctUntilChanged = distinctUntilChanged;
+            return this;
+        }
+
+        /**
+         * How many values may wait while the subscriber is busy, and which one is dropped when
+         * the buffer is full. Defaults to 1 and {@link OverflowPolicy#DROP_OLDEST}, i.e. conflation.
+         */
+        public Builder buffer(int capacity, OverflowPolicy overflowPolicy) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity < 1: " + capacity);
+            }
+            this.bufferCapacity = capacity;
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * The time source used for debouncing. Defaults to the main thread.
+         */
+        public Builder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Deliver values on the given executor instead of the thread that emitted them.
+         */
+        public Builder deliverOn(Executor executor) {
+            this.deliveryExecutor = executor;
+            return this;
+        }
+
+        public SideStream build(Subscriber subscriber) {
+            return new SideStream(this, subscriber);
+        }
+    }
+
+    private static final class MainThreadScheduler implements Scheduler {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            handler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package jk.android.tristateswitch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pre-rendered frames of the side transitions of a switch style.
+ * <p>
+ * Every frame holds the track, tinted for the thumb position, with the thumb drawn on top. The
+ * frames are stacked vertically in one bitmap so that an animation frame is a single
+ * {@code drawBitmap} of the matching cell. The track colors come from the transition tables of
+ * {@link ColorInterpolator#transitionColor(int, int, float)}, like live drawing: a first strip
+ * covers the changes between neighbouring sides, which blend through the neutral color, and a
+ * second strip the direct LEFT &harr; RIGHT change. Atlases are built lazily on a background
+ * thread and shared by all switches with an identical {@link Spec}.
+ */
+final class SpriteAtlas {
+
+    // ******************************************
+
+    private static final String TAG = SpriteAtlas.class.getSimpleName();
+
+    static final int FRAME_COUNT = 24;
+    private static final int STRIP_COUNT = 2;
+    private static final long RETRY_DELAY = 10000;     // ms
+    private static final int MEMORY_BUDGET = 8 * 1024 * 1024;  // 8 MB
+
+    private static final LruCache<Spec, SpriteAtlas> ATLASES = new LruCache<Spec, SpriteAtlas>(MEMORY_BUDGET) {
+        @Override
+        protected int sizeOf(Spec key, SpriteAtlas value) {
+            return key.byteCount();
+        }
+    };
+
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TriStateSwitch-atlas");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private static Handler mainHandler;
+    private static long retryTime;      // uptime before which no atlas is built after running out of memory
+
+    private final Spec spec;
+    private final Rect cell = new Rect();
+    private volatile Bitmap bitmap;
+    private ArrayList<WeakReference<TriStateSwitch>> waitingViews = new ArrayList<>();
+
+    // ******************************************
+
+    private SpriteAtlas(Spec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Returns the shared atlas of the given style and schedules its rendering if it does not
+     * exist yet. The view is invalidated once the atlas becomes ready, or told to drop it if
+     * there is not enough memory to build it. Must be called on the main thread.
+     *
+     * @return the atlas, or {@code null} shortly after an atlas could not be built
+     */
+    static SpriteAtlas obtain(Spec spec, TriStateSwitch view) {
+        SpriteAtlas atlas = ATLASES.get(spec);
+        if (atlas == null) {
+            if (SystemClock.uptimeMillis() < retryTime) {
+                return null;
+            }
+            atlas = new SpriteAtlas(spec);
+            ATLASES.put(spec, atlas);
+            atlas.waitingViews.add(new WeakReference<>(view));
+            atlas.scheduleBuild();
+        } else if (atlas.bitmap == null) {
+            atlas.waitingViews.add(new WeakReference<>(view));
+        }
+        return atlas;
+    }
+
+    /**
+     * @return whether atlases are built again, i.e. the retry delay after running out of memory
+     * has passed. Lets a switch skip creating a {@link Spec} on every frame meanwhile.
+     */
+    static boolean canBuild() {
+        return SystemClock.uptimeMillis() >= retryTime;
+    }
+
+    // ******************************************
+
+    boolean isReady() {
+        return bitmap != null;
+    }
+
+    /**
+     * Draws the frame that matches the thumb position into {@code destination}, the track bounds.
+     *
+     * @param progress the thumb position from the LEFT (0) to the RIGHT (1) destination
+     * @param direct   whether the thumb moves between LEFT and RIGHT, rather than between
+     *                 neighbouring sides
+     */
+    void draw(Canvas canvas, float progress, boolean direct, RectF destination) {
+        int frame = Math.round(((progress < 0) ? 0 : ((progress > 1) ? 1 : progress)) * (FRAME_COUNT - 1));
+        if (direct) {
+            frame += FRAME_COUNT;
+        }
+        cell.set(0, frame * spec.height, spec.width, (frame + 1) * spec.height);
+        canvas.drawBitmap(bitmap, cell, destination, null);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void scheduleBuild() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        BUILDER.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap rendered;
+                try {
+                    rendered = render(spec);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "not enough memory to build the sprite atlas");
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Switches go back to drawing live geometry; a later request may retry.
+                            ATLASES.remove(spec);
+                            retryTime = SystemClock.uptimeMillis() + RETRY_DELAY;
+                            for (WeakReference<TriStateSwitch> reference : waitingViews) {
+                                TriStateSwitch view = reference.get();
+                                if (view != null) {
+                                    view.dropSpriteAtlas(SpriteAtlas.this);
+                                }
+                            }
+                            waitingViews = null;
+                        }
+                    });
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        bitmap = rendered;
+                        for (WeakReference<TriStateSwitch> reference : waitingViews) {
+                            TriStateSwitch view = reference.get();
+                            if (view != null) {
+                                view.invalidate();
+                            }
+                        }
+                        waitingViews = null;
+                    }
+                });
+            }
+        });
+    }
+
+    private static Bitmap render(Spec spec) {
+        Bitmap bitmap = Bitmap.createBitmap(spec.width, spec.height * FRAME_COUNT * STRIP_COUNT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        RectF track = new RectF(0, 0, spec.width, spec.height);
+        RectF thumb = new RectF();
+        ColorInterpolator colors = new ColorInterpolator(spec.leftSideColor, spec.neutralColor, spec.rightSideColor);
+        colors.setLinearLight(spec.linearLight);
+
+        for (int frame = 0; frame < FRAME_COUNT * STRIP_COUNT; frame++) {
+            boolean direct = frame >= FRAME_COUNT;
+            float progress = (float) (frame % FRAME_COUNT) / (FRAME_COUNT - 1);
+
+            int trackColor;
+            if (direct) {
+                trackColor = colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, progress);
+            } else if (progress < 0.5f) {
+                trackColor = colors.transitionColor(TriStateArray.LEFT, TriStateArray.MIDDLE, progress * 2);
+            } else {
+                trackColor = colors.transitionColor(TriStateArray.MIDDLE, TriStateArray.RIGHT, (progress - 0.5f) * 2);
+            }
+            paint.setColor(trackColor);
+            canvas.drawRoundRect(track, spec.trackRadius, spec.trackRadius, paint);
+
+            float thumbLeft = spec.thumbMinLeft + ((spec.thumbMaxLeft - spec.thumbMinLeft) * progress);
+            thumb.set(thumbLeft, spec.thumbTop, thumbLeft + spec.thumbWidth, spec.thumbTop + spec.thumbHeight);
+            paint.setColor(spec.thumbColor);
+            canvas.drawRoundRect(thumb, spec.thumbRadius, spec.thumbRadius, paint);
+
+            canvas.translate(0, spec.height);
+        }
+        return bitmap;
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * Everything that determines how the frames of an atlas look. Thumb coordinates are
+     * relative to the track.
+     */
+    static final class Spec {
+        final int width, height;
+        final float trackRadius;
+        final float thumbMinLeft, thumbMaxLeft, thumbTop, thumbWidth, thumbHeight, thumbRadius;
+        final int thumbColor, leftSideColor, neutralColor, rightSideColor;
+        final boolean linearLight;
+
+        Spec(int width, int height, float trackRadius,
+             float thumbMinLeft, float thumbMaxLeft, float thumbTop, float thumbWidth, float thumbHeight, float thumbRadius,
+             int thumbColor, int leftSideColor, int neutralColor, int rightSideColor, boolean linearLight) {
+            this.width = width;
+            this.height = height;
+            this.trackRadius = trackRadius;
+            this.thumbMinLeft = thumbMinLeft;
+            this.thumbMaxLeft = thumbMaxLeft;
+            this.thumbTop = thumbTop;
+            this.thumbWidth = thumbWidth;
+            this.thumbHeight = thumbHeight;
+            this.thumbRadius = thumbRadius;
+            this.thumbColor = thumbColor;
+            this.leftSideColor = leftSideColor;
+            this.neutralColor = neutralColor;
+            this.rightSideColor = rightSideColor;
+            this.linearLight = linearLight;
+        }
+
+        int byteCount() {
+            return width * height * FRAME_COUNT * STRIP_COUNT * 4;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Spec)) {
+                return false;
+            }
+            Spec other = (Spec) o;
+            return width == other.width
+                    && height == other.height
+                    && Float.compare(trackRadius, other.trackRadius) == 0
+                    && Float.compare(thumbMinLeft, other.thumbMinLeft) == 0
+                    && Float.compare(thumbMaxLeft, other.thumbMaxLeft) == 0
+                    && Float.compare(thumbTop, other.thumbTop) == 0
+                    && Float.compare(thumbWidth, other.thumbWidth) == 0
+                    && Float.compare(thumbHeight, other.thumbHeight) == 0
+                    && Float.compare(thumbRadius, other.thumbRadius) == 0
+                    && thumbColor == other.thumbColor
+                    && leftSideColor == other.leftSideColor
+                    && neutralColor == other.neutralColor
+                    && rightSideColor == other.rightSideColor
+                    && linearLight == other.linearLight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + Float.floatToIntBits(trackRadius);
+            result = 31 * result + Float.floatToIntBits(thumbMinLeft);
+            result = 31 * result + Float.floatToIntBits(thumbMaxLeft);
+            result = 31 * result + Float.floatToIntBits(thumbTop);
+            result = 31 * result + Float.floatToIntBits(thumbWidth);
+            result = 31 * result + Float.floatToIntBits(thumbHeight);
+            result = 31 * result + Float.floatToIntBits(thumbRadius);
+            result = 31 * result + thumbColor;
+            result = 31 * result + leftSideColor;
+            result = 31 * result + neutralColor;
+            result = 31 * result + rightSideColor;
+            result = 31 * result + (linearLight ? 1 : 0);
+            return result;
+        }
+    }
+}
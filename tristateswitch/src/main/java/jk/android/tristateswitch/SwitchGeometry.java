@@ -0,0 +1,334 @@
+package jk.android.tristateswitch;
+
+/**
+ * Solves the track and thumb bounds of a switch for a given view size and hit-tests positions
+ * against them.
+ * <p>
+ * The track is inset by a fixed padding and split into {@code positionCount} segments, three for
+ * a {@link TriStateSwitch}. The thumb is as wide as a segment. The thumb destinations and the
+ * segment boundaries are precomputed into arrays whenever the size changes, so hit-testing is a
+ * binary search without any arithmetic per touch. Positions are indices from 0 (left) to
+ * {@code positionCount - 1} (right); with three positions they are the int codes of
+ * {@link TriStateArray}.
+ */
+public final class SwitchGeometry {
+
+    // ******************************************
+
+    private static final int DEFAULT_POSITION_COUNT = 3;
+
+    private final int innerPadding;
+    private final int thumbInset;
+    private int positionCount;
+
+    private Layout layout;      // may be shared with other geometries of the same size
+
+    // ******************************************
+
+    public SwitchGeometry() {
+        this(16, 24);
+    }
+
+    /**
+     * @param innerPadding the distance between the view bounds and the track
+     * @param thumbInset   the distance between the view bounds and the top and bottom of the thumb
+     */
+    public SwitchGeometry(int innerPadding, int thumbInset) {
+        this(innerPadding, thumbInset, DEFAULT_POSITION_COUNT);
+    }
+
+    /**
+     * @param positionCount the number of positions the thumb can rest on, at least 2
+     */
+    public SwitchGeometry(int innerPadding, int thumbInset, int positionCount) {
+        this.innerPadding = innerPadding;
+        this.thumbInset = thumbInset;
+        setPositionCount(positionCount);
+    }
+
+    // ******************************************
+
+    /**
+     * Computes all bounds for a view of the given size. Must be called before any other method
+     * returns meaningful values. A size below the minimum, e.g. an exact measure spec that is too
+     * small, is solved as the minimum size so that the bounds never invert; the overflow is
+     * clipped by the view.
+     */
+    public void layout(int width, int height) {
+        layout = solve(width, height);
+    }
+
+    /**
+     * Adopts bounds solved before, e.g. by another switch of the same size and style.
+     *
+     * @param layout the result of {@link #solve(int, int)} on a geometry with the same padding,
+     *               inset and position count
+     */
+    void layout(Layout layout) {
+        if (!layout.fits(this)) {
+            throw new IllegalArgumentException("Layout of a different geometry");
+        }
+        this.layout = layout;
+    }
+
+    /**
+     * @return the bounds of this geometry for a view of the given size, without adopting them
+     */
+    Layout solve(int width, int height) {
+        return new Layout(innerPadding, thumbInset, positionCount, width, height);
+    }
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    /**
+     * Changes the number of positions. The bounds are computed again if the geometry was laid out.
+     *
+     * @param positionCount the number of positions the thumb can rest on, at least 2
+     */
+    public void setPositionCount(int positionCount) {
+        if (positionCount < 2) {
+            throw new IllegalArgumentException("Invalid position count: " + positionCount);
+        }
+        boolean laidOut = (layout != null) && layout.isLaidOut();
+        this.positionCount = positionCount;
+        layout = laidOut ? solve(layout.width, layout.height) : solve(0, 0);
+    }
+
+    /**
+     * @return the smallest height that leaves the thumb at least {@code innerPadding} tall
+     */
+    public int getMinimumHeight() {
+        return minimumHeight(innerPadding, thumbInset);
+    }
+
+    /**
+     * @return the smallest width, keeping the 2:1 proportions of the default size and leaving
+     * the track wider than its padding
+     */
+    public int getMinimumWidth() {
+        return minimumWidth(innerPadding, thumbInset, positionCount);
+    }
+
+    public boolean isLaidOut() {
+        return layout.isLaidOut();
+    }
+
+    /**
+     * @return the left edge of the thumb when it rests on the given position
+     */
+    public float thumbDestination(int position) {
+        return layout.thumbDestinations[position];
+    }
+
+    /**
+     * @return the position a tap at {@code x} selects, found by a binary search of the segments
+     */
+    public int hitTest(float x) {
+        return countBelow(layout.boundaries, x, true);
+    }
+
+    /**
+     * @return the position whose thumb destination is closest to {@code thumbLeft}
+     */
+    public int nearestSide(float thumbLeft) {
+        float[] thumbDestinations = layout.thumbDestinations;
+        int above = countBelow(thumbDestinations, thumbLeft, false);
+        if (above == 0) {
+            return 0;
+        } else if (above == positionCount) {
+            return positionCount - 1;
+        }
+        // Ties go to the left, like a linear scan would.
+        return ((thumbLeft - thumbDestinations[above - 1]) <= (thumbDestinations[above] - thumbLeft)) ? above - 1 : above;
+    }
+
+    /**
+     * @return the next position after {@code thumbLeft} in the given direction, or the outermost
+     * position when there is none
+     */
+    public int nextSide(float thumbLeft, boolean towardsRight) {
+        float[] thumbDestinations = layout.thumbDestinations;
+        if (towardsRight) {
+            // The first destination greater than thumbLeft.
+            return Math.min(countBelow(thumbDestinations, thumbLeft, true), positionCount - 1);
+        }
+        // The last destination less than thumbLeft.
+        return Math.max(countBelow(thumbDestinations, thumbLeft, false) - 1, 0);
+    }
+
+    /**
+     * @return {@code thumbLeft} limited to the travel of the thumb
+     */
+    public float clampThumbLeft(float thumbLeft) {
+        float minLeft = layout.thumbDestinations[0];
+        float maxLeft = layout.thumbDestinations[positionCount - 1];
+        return (thumbLeft < minLeft) ? minLeft : ((thumbLeft > maxLeft) ? maxLeft : thumbLeft);
+    }
+
+    /**
+     * @return the thumb position from the leftmost (0) to the rightmost (1) destination, not clamped
+     */
+    public float position(float thumbLeft) {
+        float minLeft = layout.thumbDestinations[0];
+        float maxLeft = layout.thumbDestinations[positionCount - 1];
+        return (maxLeft > minLeft) ? (thumbLeft - minLeft) / (maxLeft - minLeft) : 0;
+    }
+
+    // ******************************************
+    // ****************************************** Getters & Setters
+    // ******************************************
+
+    public int getWidth() {
+        return layout.width;
+    }
+
+    public int getHeight() {
+        return layout.height;
+    }
+
+    public int getInnerPadding() {
+        return innerPadding;
+    }
+
+    public float getTrackLeft() {
+        return layout.trackLeft;
+    }
+
+    public float getTrackTop() {
+        return layout.trackTop;
+    }
+
+    public float getTrackRight() {
+        return layout.trackRight;
+    }
+
+    public float getTrackBottom() {
+        return layout.trackBottom;
+    }
+
+    public float getThumbTop() {
+        return layout.thumbTop;
+    }
+
+    public float getThumbBottom() {
+        return layout.thumbBottom;
+    }
+
+    public float getThumbWidth() {
+        return layout.thumbWidth;
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private static int minimumHeight(int innerPadding, int thumbInset) {
+        return (2 * thumbInset) + innerPadding;
+    }
+
+    private static int minimumWidth(int innerPadding, int thumbInset, int positionCount) {
+        return Math.max(2 * minimumHeight(innerPadding, thumbInset), (2 * innerPadding) + positionCount);
+    }
+
+    /**
+     * @return the number of values of the ascending array that are less than {@code x}, or less
+     * than or equal to it if {@code inclusive}
+     */
+    private static int countBelow(float[] values, float x, boolean inclusive) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if ((values[mid] < x) || (inclusive && (values[mid] == x))) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * The bounds of a geometry for one view size. Immutable, so switches of the same size and
+     * style share one instance instead of each holding its own arrays, see
+     * {@link SwitchStyle#sizeTables(SwitchGeometry, int, int)}.
+     */
+    static final class Layout {
+        final int innerPadding;
+        final int thumbInset;
+        final int positionCount;
+        final int width;
+        final int height;
+
+        final float trackLeft, trackTop, trackRight, trackBottom;
+        final float thumbTop, thumbBottom, thumbWidth;
+        final float[] thumbDestinations;
+        /** The left edge of every segment but the first, in view coordinates. */
+        final float[] boundaries;
+
+        /**
+         * Solves the bounds for a view of the given size; all bounds are 0 for a width of 0,
+         * i.e. before the first layout.
+         */
+        Layout(int innerPadding, int thumbInset, int positionCount, int width, int height) {
+            this.innerPadding = innerPadding;
+            this.thumbInset = thumbInset;
+            this.positionCount = positionCount;
+            this.width = width;
+            this.height = height;
+            thumbDestinations = new float[positionCount];
+            boundaries = new float[positionCount - 1];
+            if (width == 0) {
+                trackLeft = trackTop = trackRight = trackBottom = 0;
+                thumbTop = thumbBottom = thumbWidth = 0;
+                return;
+            }
+
+            int usableWidth = Math.max(width, minimumWidth(innerPadding, thumbInset, positionCount));
+            int usableHeight = Math.max(height, minimumHeight(innerPadding, thumbInset));
+
+            trackLeft = innerPadding;
+            trackTop = innerPadding;
+            trackRight = usableWidth - innerPadding;
+            trackBottom = usableHeight - innerPadding;
+
+            thumbWidth = usableWidth / positionCount;
+            thumbTop = thumbInset;
+            thumbBottom = usableHeight - thumbInset;
+
+            // The destinations are evenly spaced, from the padded track start to a thumb width
+            // before the track width; with three positions the middle one is a third of the width.
+            float trackWidth = trackRight - trackLeft;
+            float minLeft = trackLeft + innerPadding;
+            // Never left of the first destination, or the travel and the binary searches would invert.
+            float maxLeft = Math.max(trackWidth - thumbWidth, minLeft);
+            int last = positionCount - 1;
+            for (int position = 0; position < positionCount; position++) {
+                thumbDestinations[position] = minLeft + (((maxLeft - minLeft) * position) / last);
+            }
+
+            for (int i = 0; i < last; i++) {
+                boundaries[i] = (trackWidth * (i + 1)) / positionCount;
+            }
+        }
+
+        boolean isLaidOut() {
+            return width != 0;
+        }
+
+        /**
+         * @return whether these bounds were solved for a geometry like the given one
+         */
+        boolean fits(SwitchGeometry geometry) {
+            return (innerPadding == geometry.innerPadding)
+                    && (thumbInset == geometry.thumbInset)
+                    && (positionCount == geometry.positionCount);
+        }
+    }
+}
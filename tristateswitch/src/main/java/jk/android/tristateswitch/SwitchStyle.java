@@ -0,0 +1,421 @@
+package jk.android.tristateswitch;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.ViewConfiguration;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The flyweight holding everything switches of the same style have in common: the resolved
+ * attributes, the color tables, the paints, the thumb shadow, the measured labels, the timing,
+ * the touch configuration and the size-dependent tables, i.e. the track and thumb bounds and
+ * the corner radii of every size a switch of this style was laid out at.
+ * <p>
+ * Resolving attributes (obtainStyledAttributes, one lookup per attribute, dp conversion) is the
+ * main cost of inflating a switch. Styles that only depend on the theme and the style resources,
+ * i.e. switches whose XML tag sets no switch attribute directly, are cached per
+ * (theme, style, defStyleAttr, defStyleRes), so identical switches in a list share one instance
+ * and skip the parsing. Obtaining a style is thread-safe, since layouts may be inflated off the
+ * main thread.
+ * <p>
+ * A shared style is never modified. A switch whose style is changed through a setter first
+ * takes a private copy with {@link #mutate()}, like {@code Drawable.mutate()}. The paints are
+ * only used on the main thread; the track color is set right before each draw.
+ */
+final class SwitchStyle {
+
+    // ******************************************
+
+    private static final int DEFAULT_WIDTH_DP = 80;
+    private static final int DEFAULT_HEIGHT_DP = 40;
+    private static final int DEFAULT_LABEL_TEXT_SIZE_SP = 12;
+
+    private static final int MAX_SIZE_TABLES = 8;
+
+    private static final WeakHashMap<Resources.Theme, HashMap<Key, SwitchStyle>> CACHE = new WeakHashMap<>();
+
+    // Whether switches share their size tables, only turned off to measure the savings.
+    static boolean sizeTablesShared = true;
+
+    int thumbColor;
+    int thumbSpeed;                         // ms
+    int shapeTransformationSpeed = 500;     // ms
+    final int thumbShape;
+    final int defaultWidthPx;
+    final int defaultHeightPx;
+    final ColorInterpolator colors;
+    float thumbShadowRadius;                // px, 0 for no shadow
+    float thumbShadowDy;                    // px
+    int thumbShadowColor;
+    boolean showLabels;
+    final LabelLayout[] labels = new LabelLayout[3];   // per side, null for none
+    int labelTextColor;
+    int thumbLabelTextColor;
+
+    final int touchSlop;
+    final int minimumFlingVelocity;
+    final int maximumFlingVelocity;
+
+    final Paint trackPaint;
+    final Paint thumbPaint;
+    final Paint shadowPaint;
+    final Paint labelPaint;
+    final RenderCache renderCache;
+    private final LinkedHashMap<Long, SizeTables> sizeTables;   // also shared with mutated copies
+
+    private boolean shared;
+
+    // ******************************************
+
+    private SwitchStyle(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        int thumbColor = Color.WHITE;
+        int neutralColor = Color.GRAY;
+        int leftSideColor = Color.GRAY;
+        int rightSideColor = Color.GRAY;
+        boolean linearColorBlending = false;
+        int thumbSpeed = 500;   // 500 ms
+        int thumbShape = TriStateSwitch.THUMB_SHAPE_RECTANGLE;
+        float thumbShadowRadius = 0;
+        float thumbShadowDy = 0;
+        int thumbShadowColor = 0x40000000;
+        boolean showLabels = false;
+        CharSequence[] labelTexts = new CharSequence[3];
+        float labelTextSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, DEFAULT_LABEL_TEXT_SIZE_SP, context.getResources().getDisplayMetrics());
+        int labelTextColor = Color.WHITE;
+        int thumbLabelTextColor = 0xff444444;
+
+        TypedArray typedArray = context.getTheme().obtainStyledAttributes(attrs, R.styleable.TriStateSwitch, defStyleAttr, defStyleRes);
+        try {
+            // Only visit the attributes that actually have a value.
+            for (int i = 0, count = typedArray.getIndexCount(); i < count; i++) {
+                int index = typedArray.getIndex(i);
+                if (index == R.styleable.TriStateSwitch_thumbColor) {
+                    thumbColor = typedArray.getColor(index, thumbColor);
+                } else if (index == R.styleable.TriStateSwitch_neutralColor) {
+                    neutralColor = typedArray.getColor(index, neutralColor);
+                } else if (index == R.styleable.TriStateSwitch_leftSideColor) {
+                    leftSideColor = typedArray.getColor(index, leftSideColor);
+                } else if (index == R.styleable.TriStateSwitch_rightSideColor) {
+                    rightSideColor = typedArray.getColor(index, rightSideColor);
+                } else if (index == R.styleable.TriStateSwitch_linearColorBlending) {
+                    linearColorBlending = typedArray.getBoolean(index, linearColorBlending);
+                } else if (index == R.styleable.TriStateSwitch_thumbSpeed) {
+                    thumbSpeed = typedArray.getInteger(index, thumbSpeed);
+                } else if (index == R.styleable.TriStateSwitch_thumbShape) {
+                    thumbShape = typedArray.getInteger(index, thumbShape);
+                } else if (index == R.styleable.TriStateSwitch_thumbShadowRadius) {
+                    thumbShadowRadius = typedArray.getDimension(index, thumbShadowRadius);
+                } else if (index == R.styleable.TriStateSwitch_thumbShadowDy) {
+                    thumbShadowDy = typedArray.getDimension(index, thumbShadowDy);
+                } else if (index == R.styleable.TriStateSwitch_thumbShadowColor) {
+                    thumbShadowColor = typedArray.getColor(index, thumbShadowColor);
+                } else if (index == R.styleable.TriStateSwitch_showLabels) {
+                    showLabels = typedArray.getBoolean(index, showLabels);
+                } else if (index == R.styleable.TriStateSwitch_leftLabel) {
+                    labelTexts[TriStateArray.LEFT] = typedArray.getText(index);
+                } else if (index == R.styleable.TriStateSwitch_middleLabel) {
+                    labelTexts[TriStateArray.MIDDLE] = typedArray.getText(index);
+                } else if (index == R.styleable.TriStateSwitch_rightLabel) {
+                    labelTexts[TriStateArray.RIGHT] = typedArray.getText(index);
+                } else if (index == R.styleable.TriStateSwitch_labelTextSize) {
+                    labelTextSize = typedArray.getDimension(index, labelTextSize);
+                } else if (index == R.styleable.TriStateSwitch_labelTextColor) {
+                    labelTextColor = typedArray.getColor(index, labelTextColor);
+                } else if (index == R.styleable.TriStateSwitch_thumbLabelTextColor) {
+                    thumbLabelTextColor = typedArray.getColor(index, thumbLabelTextColor);
+                }
+            }
+        } finally {
+            typedArray.recycle();
+        }
+
+        this.thumbColor = thumbColor;
+        this.thumbSpeed = thumbSpeed;
+        this.thumbShape = thumbShape;
+        this.defaultWidthPx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_WIDTH_DP, context.getResources().getDisplayMetrics());
+        this.defaultHeightPx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_HEIGHT_DP, context.getResources().getDisplayMetrics());
+        this.colors = new ColorInterpolator(leftSideColor, neutralColor, rightSideColor);
+        this.colors.setLinearLight(linearColorBlending);
+        this.thumbShadowRadius = thumbShadowRadius;
+        this.thumbShadowDy = thumbShadowDy;
+        this.thumbShadowColor = thumbShadowColor;
+        this.showLabels = showLabels;
+        this.labelTextColor = labelTextColor;
+        this.thumbLabelTextColor = thumbLabelTextColor;
+
+        ViewConfiguration viewConfiguration = ViewConfiguration.get(context);
+        this.touchSlop = viewConfiguration.getScaledTouchSlop();
+        this.minimumFlingVelocity = viewConfiguration.getScaledMinimumFlingVelocity();
+        this.maximumFlingVelocity = viewConfiguration.getScaledMaximumFlingVelocity();
+
+        this.trackPaint = createTrackPaint();
+        this.thumbPaint = createThumbPaint(thumbColor);
+        this.shadowPaint = createThumbPaint(thumbShadowColor);
+        this.labelPaint = createLabelPaint(labelTextSize);
+        this.renderCache = RenderCache.getInstance(context);
+        this.sizeTables = createSizeTables();
+        for (int side = 0; side < labels.length; side++) {
+            labels[side] = LabelLayout.obtain(labelTexts[side], labelPaint);
+        }
+    }
+
+    /**
+     * Copies a style, with its own color tables and paints.
+     */
+    private SwitchStyle(SwitchStyle other) {
+        this.thumbColor = other.thumbColor;
+        this.thumbSpeed = other.thumbSpeed;
+        this.shapeTransformationSpeed = other.shapeTransformationSpeed;
+        this.thumbShape = other.thumbShape;
+        this.defaultWidthPx = other.defaultWidthPx;
+        this.defaultHeightPx = other.defaultHeightPx;
+        this.colors = new ColorInterpolator(other.colors.getLeftSideColor(), other.colors.getNeutralColor(), other.colors.getRightSideColor());
+        this.colors.setLinearLight(other.colors.isLinearLight());
+        this.thumbShadowRadius = other.thumbShadowRadius;
+        this.thumbShadowDy = other.thumbShadowDy;
+        this.thumbShadowColor = other.thumbShadowColor;
+        this.showLabels = other.showLabels;
+        System.arraycopy(other.labels, 0, this.labels, 0, labels.length);
+        this.labelTextColor = other.labelTextColor;
+        this.thumbLabelTextColor = other.thumbLabelTextColor;
+        this.touchSlop = other.touchSlop;
+        this.minimumFlingVelocity = other.minimumFlingVelocity;
+        this.maximumFlingVelocity = other.maximumFlingVelocity;
+        this.trackPaint = createTrackPaint();
+        this.thumbPaint = createThumbPaint(other.thumbColor);
+        this.shadowPaint = createThumbPaint(other.thumbShadowColor);
+        this.labelPaint = createLabelPaint(other.labelPaint.getTextSize());
+        this.renderCache = other.renderCache;
+        this.sizeTables = other.sizeTables;
+    }
+
+    /**
+     * Returns the style of a switch, shared with all switches of the same theme and style
+     * resources unless the XML tag sets switch attributes directly.
+     *
+     * @param defStyleAttr the theme attribute holding the default style, 0 for none
+     * @param defStyleRes  the default style, used if defStyleAttr is 0 or not set in the theme
+     */
+    static SwitchStyle obtain(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        if (hasInlineAttributes(attrs)) {
+            return new SwitchStyle(context, attrs, defStyleAttr, defStyleRes);
+        }
+
+        Resources.Theme theme = context.getTheme();
+        Key key = new Key((attrs != null) ? attrs.getStyleAttribute() : 0, defStyleAttr, defStyleRes);
+        synchronized (CACHE) {
+            HashMap<Key, SwitchStyle> styles = CACHE.get(theme);
+            if (styles == null) {
+                styles = new HashMap<>();
+                CACHE.put(theme, styles);
+            }
+            SwitchStyle style = styles.get(key);
+            if (style == null) {
+                style = new SwitchStyle(context, attrs, defStyleAttr, defStyleRes);
+                style.shared = true;
+                styles.put(key, style);
+            }
+            return style;
+        }
+    }
+
+    /**
+     * @return this style if it belongs to a single switch, otherwise a private copy that may be modified
+     */
+    SwitchStyle mutate() {
+        return shared ? new SwitchStyle(this) : this;
+    }
+
+    void setThumbColor(int thumbColor) {
+        this.thumbColor = thumbColor;
+        thumbPaint.setColor(thumbColor);
+    }
+
+    void setThumbShadow(float radius, float dy, int color) {
+        this.thumbShadowRadius = radius;
+        this.thumbShadowDy = dy;
+        this.thumbShadowColor = color;
+        shadowPaint.setColor(color);
+    }
+
+    void setLabels(CharSequence left, CharSequence middle, CharSequence right) {
+        labels[TriStateArray.LEFT] = LabelLayout.obtain(left, labelPaint);
+        labels[TriStateArray.MIDDLE] = LabelLayout.obtain(middle, labelPaint);
+        labels[TriStateArray.RIGHT] = LabelLayout.obtain(right, labelPaint);
+    }
+
+    /**
+     * Changes the text size and measures the labels again.
+     */
+    void setLabelTextSize(float textSize) {
+        labelPaint.setTextSize(textSize);
+        for (int side = 0; side < labels.length; side++) {
+            if (labels[side] != null) {
+                labels[side] = LabelLayout.obtain(new String(labels[side].text), labelPaint);
+            }
+        }
+    }
+
+    /**
+     * Returns the bounds and corner radii of a switch of the given size, shared by all switches
+     * of this style laid out at that size. The most recently used sizes are kept. Must be called
+     * on the main thread.
+     *
+     * @param geometry the geometry of the switch, which decides the position count
+     */
+    SizeTables sizeTables(SwitchGeometry geometry, int width, int height) {
+        if (!sizeTablesShared) {
+            return new SizeTables(geometry.solve(width, height));
+        }
+
+        Long key = ((long) geometry.getPositionCount() << 32) | ((width & 0xffffL) << 16) | (height & 0xffffL);
+        SizeTables tables = sizeTables.get(key);
+        if (tables == null || !tables.geometry.fits(geometry)) {
+            tables = new SizeTables(geometry.solve(width, height));
+            sizeTables.put(key, tables);
+        }
+        return tables;
+    }
+
+    boolean hasLabels() {
+        return showLabels && ((labels[0] != null) || (labels[1] != null) || (labels[2] != null));
+    }
+
+    boolean hasThumbShadow() {
+        return (thumbShadowRadius > 0) && (Color.alpha(thumbShadowColor) != 0);
+    }
+
+    /**
+     * @return how far the shadow reaches beyond the thumb on any side, in px
+     */
+    int getThumbShadowExtent() {
+        return hasThumbShadow()
+                ? RenderCache.getShadowPadding(thumbShadowRadius) + (int) Math.ceil(Math.abs(thumbShadowDy))
+                : 0;
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private static LinkedHashMap<Long, SizeTables> createSizeTables() {
+        return new LinkedHashMap<Long, SizeTables>(MAX_SIZE_TABLES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SizeTables> eldest) {
+                return size() > MAX_SIZE_TABLES;
+            }
+        };
+    }
+
+    private static Paint createTrackPaint() {
+        Paint paint = new Paint();
+        paint.setStyle(Paint.Style.FILL);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    private static Paint createThumbPaint(int thumbColor) {
+        Paint paint = new Paint();
+        paint.setColor(thumbColor);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);    // the thumb mask is drawn at sub-pixel positions
+        return paint;
+    }
+
+    private static Paint createLabelPaint(float textSize) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+        paint.setTextSize(textSize);
+        return paint;
+    }
+
+    /**
+     * @return whether the XML tag itself sets any switch attribute
+     */
+    private static boolean hasInlineAttributes(AttributeSet attrs) {
+        if (attrs == null) {
+            return false;
+        }
+        for (int i = 0, count = attrs.getAttributeCount(); i < count; i++) {
+            int nameResource = attrs.getAttributeNameResource(i);
+            for (int attr : R.styleable.TriStateSwitch) {
+                if (attr == nameResource) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ******************************************
+    // ****************************************** Custom classes
+    // ******************************************
+
+    /**
+     * The tables of one switch size: the solved geometry, the track bounds and the corner radii
+     * of the shape presets. Read-only once created; the radii are computed again only when a
+     * preset was added since.
+     */
+    static final class SizeTables {
+        final SwitchGeometry.Layout geometry;
+        final RectF trackBounds;
+        private ShapeMorph.Radii radii;
+
+        SizeTables(SwitchGeometry.Layout geometry) {
+            this.geometry = geometry;
+            this.trackBounds = new RectF(geometry.trackLeft, geometry.trackTop, geometry.trackRight, geometry.trackBottom);
+        }
+
+        ShapeMorph.Radii radii() {
+            if (radii == null || !radii.isCurrent()) {
+                radii = new ShapeMorph.Radii(trackBounds.width(), trackBounds.height(),
+                        geometry.thumbWidth, geometry.thumbBottom - geometry.thumbTop);
+            }
+            return radii;
+        }
+    }
+
+    private static final class Key {
+        final int style;
+        final int defStyleAttr;
+        final int defStyleRes;
+
+        Key(int style, int defStyleAttr, int defStyleRes) {
+            this.style = style;
+            this.defStyleAttr = defStyleAttr;
+            this.defStyleRes = defStyleRes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return style == other.style
+                    && defStyleAttr == other.defStyleAttr
+                    && defStyleRes == other.defStyleRes;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = style;
+            result = 31 * result + defStyleAttr;
+            result = 31 * result + defStyleRes;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package jk.android.tristateswitch;
+
+import android.graphics.RectF;
+
+/**
+ * Motion engine that moves the thumb of a {@link TriStateSwitch} from one side to another, or of
+ * a {@link SegmentedSwitch} from one position to another. Sides are position indices.
+ * <p>
+ * The thumb follows a critically damped spring. A new side request while the thumb is still
+ * moving retargets the running motion from its current position and velocity instead of
+ * starting a second animation, so rapid toggling never stacks animations and always settles
+ * on the last requested side with exactly one end event.
+ * <p>
+ * The engine is created once per switch and is stepped by the shared {@link FrameClock}
+ * together with all other running switches, so toggling does not allocate after warm-up.
+ * The track color of a motion that starts on a side color is read from the precomputed
+ * transition table of the {@link ColorInterpolator}. The engine only holds the motion itself;
+ * the track color and the colors of the style are read from the switch.
+ */
+final class ThumbMotion implements FrameClock.Client {
+
+    // ******************************************
+
+    /** The motion is considered settled when closer than this to the target (px). */
+    private static final float REST_DISTANCE = 0.5f;
+    /** ... and slower than this (px/s). */
+    private static final float REST_VELOCITY = 8f;
+    /** Frames longer than this are clamped so a stalled UI thread does not make the thumb jump (s). */
+    private static final float MAX_FRAME_TIME = 1f / 15f;
+    /** Time step of the first frame after a start, before a frame interval is known (s). */
+    private static final float FIRST_FRAME_TIME = 1f / 60f;
+    /** Natural frequency factor: the spring covers ~99% of the distance within the configured duration. */
+    private static final float SETTLE_FACTOR = 6.6f;
+
+    private final TriStateSwitch view;
+    private final RectF thumb;
+    private final FrameClock clock;
+
+    private float omega = SETTLE_FACTOR * 2;   // rad/s, updated from the thumb speed
+    private float velocity;                     // px/s
+    private float startLeft, targetLeft;
+    private int startColor, targetColor;
+    private int fromSide, toSide;               // transition table of the track color, fromSide -1 if none
+    private long lastFrameTime;
+    private boolean running;
+    private boolean notifying;                  // whether the motion delivers start and end events
+    private int side = -1;
+
+    // ******************************************
+
+    ThumbMotion(TriStateSwitch view, RectF thumb) {
+        this.view = view;
+        this.thumb = thumb;
+        this.clock = FrameClock.getInstance();
+    }
+
+    // ******************************************
+
+    /**
+     * Moves the thumb so that its left edge reaches {@code left} while blending the track
+     * towards {@code color}. If the thumb is already moving, the running motion is retargeted
+     * and keeps its current velocity.
+     *
+     * @param duration the approximate time the thumb takes to settle, in milliseconds
+     */
+    void animateTo(float left, int color, int side, long duration) {
+        animateTo(left, color, side, duration, velocity);
+    }
+
+    /**
+     * Same as {@link #animateTo(float, int, int, long)} but starts from the
+     * given velocity (px/s), e.g. the velocity of the finger that released the thumb.
+     */
+    void animateTo(float left, int color, int side, long duration, float initialVelocity) {
+        start(left, color, side, duration, initialVelocity, true);
+    }
+
+    /**
+     * Same as {@link #animateTo(float, int, int, long, float)} but without start and end
+     * events, e.g. to put a dragged thumb back on the side it was picked up from.
+     */
+    void returnTo(float left, int color, int side, long duration, float initialVelocity) {
+        start(left, color, side, duration, initialVelocity, false);
+    }
+
+    /**
+     * Puts the thumb on its destination immediately, e.g. when too many switches are already
+     * animating. Delivers the same start and end events as an animated change.
+     */
+    void snapTo(float left, int color, int side) {
+        cancel();
+
+        this.startLeft = thumb.left;
+        this.targetLeft = left;
+        this.startColor = view.getTrackColor();
+        this.targetColor = color;
+        this.side = side;
+        this.notifying = true;
+
+        view.onThumbMotionStarted(side);
+        settle();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the side whose color the track transition started from, or -1 if the motion
+     * started on a blended color and has no transition table
+     */
+    int getFromSide() {
+        return fromSide;
+    }
+
+    int getToSide() {
+        return toSide;
+    }
+
+    /**
+     * Stops the motion where it is without delivering an end event.
+     */
+    void cancel() {
+        velocity = 0;
+        if (running) {
+            running = false;
+            clock.remove(this);
+        }
+    }
+
+    @Override
+    public boolean doFrame(long frameTimeMillis) {
+        if (!running) {
+            return false;
+        }
+
+        float dt = (lastFrameTime == 0)
+                ? FIRST_FRAME_TIME
+                : Math.min((frameTimeMillis - lastFrameTime) / 1000f, MAX_FRAME_TIME);
+        lastFrameTime = frameTimeMillis;
+
+        if (dt > 0) {
+            float previousLeft = thumb.left;
+            float previousRight = thumb.right;
+            int previousColor = view.getTrackColor();
+
+            step(dt);
+
+            // Re-draw only what moved: the thumb, plus the track when its color changed.
+            view.invalidateThumb(previousLeft, previousRight, view.getTrackColor() != previousColor);
+        }
+
+        if (Math.abs(thumb.left - targetLeft) < REST_DISTANCE && Math.abs(velocity) < REST_VELOCITY) {
+            // The clock drops this client when false is returned.
+            running = false;
+            settle();
+            return false;
+        }
+        return true;
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void start(float left, int color, int side, long duration, float initialVelocity, boolean notifying) {
+        boolean retarget = isRunning();
+        if (retarget && this.side == side && this.targetLeft == left) {
+            return;
+        }
+
+        this.omega = SETTLE_FACTOR * 1000f / Math.max(duration, 1);
+        this.velocity = initialVelocity;
+        this.startLeft = thumb.left;
+        this.targetLeft = left;
+        this.startColor = view.getTrackColor();
+        this.targetColor = color;
+        this.side = side;
+        // A motion retargeted halfway starts on a blended color and has no table, and only
+        // the three sides of a TriStateSwitch have tables.
+        this.fromSide = (view.getPositionCount() == 3) ? view.getColors().sideOf(startColor) : -1;
+        this.toSide = side;
+        this.notifying = notifying;
+
+        if (notifying) {
+            view.onThumbMotionStarted(side);
+        }
+
+        if (!retarget) {
+            running = true;
+            lastFrameTime = 0;
+            clock.add(this);
+        }
+    }
+
+    /**
+     * Advances the critically damped spring analytically by {@code dt} seconds.
+     * x(t) = target + (c1 + c2 * t) * e^(-omega * t)
+     */
+    private void step(float dt) {
+        float width = thumb.width();
+        float c1 = thumb.left - targetLeft;
+        float c2 = velocity + (omega * c1);
+        float decay = (float) Math.exp(-omega * dt);
+
+        float left = targetLeft + ((c1 + (c2 * dt)) * decay);
+        velocity = (c2 - (omega * (c1 + (c2 * dt)))) * decay;
+
+        thumb.left = left;
+        thumb.right = left + width;
+        float progress = progress(left);
+        ColorInterpolator colors = view.getColors();
+        view.setTrackColor((fromSide >= 0)
+                ? colors.transitionColor(fromSide, toSide, progress)
+                : colors.interpolate(startColor, targetColor, progress));
+    }
+
+    private void settle() {
+        float previousLeft = thumb.left;
+        float previousRight = thumb.right;
+        int previousColor = view.getTrackColor();
+
+        float width = thumb.width();
+        thumb.left = targetLeft;
+        thumb.right = targetLeft + width;
+        view.setTrackColor(targetColor);
+        velocity = 0;
+
+        view.invalidateThumb(previousLeft, previousRight, targetColor != previousColor);
+
+        if (notifying) {
+            view.onThumbMotionEnded(side);
+        }
+    }
+
+    /**
+     * How far the thumb has travelled from where the current target was set, in [0, 1].
+     */
+    private float progress(float left) {
+        float distance = targetLeft - startLeft;
+        if (distance == 0) {
+            return 1f;
+        }
+        float progress = (left - startLeft) / distance;
+        return (progress < 0) ? 0 : ((progress > 1) ? 1 : progress);
+    }
+}
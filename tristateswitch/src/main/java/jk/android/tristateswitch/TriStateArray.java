@@ -0,0 +1,321 @@
+package jk.android.tristateswitch;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size array of tri-state values packed into 2 bits per entry, meant for keeping the
+ * side of tens of thousands of rows without boxing a {@link TriStateSwitch.SIDE} per row.
+ * <p>
+ * States are the ordinals of {@link TriStateSwitch.SIDE}: {@link #LEFT}, {@link #MIDDLE} and
+ * {@link #RIGHT}. Population counts and diffs work on whole 64-bit words (32 entries at a time).
+ * Use {@link TriStateSwitch#bindSide(TriStateArray, int)} to show an entry in a switch, and
+ * {@link #toByteArray()} to persist the whole array, e.g. to restore a screen after process
+ * death.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class TriStateArray {
+
+    // ******************************************
+
+    public static final int LEFT = 0;       // TriStateSwitch.SIDE.LEFT.ordinal()
+    public static final int MIDDLE = 1;     // TriStateSwitch.SIDE.MIDDLE.ordinal()
+    public static final int RIGHT = 2;      // TriStateSwitch.SIDE.RIGHT.ordinal()
+
+    private static final int ENTRIES_PER_WORD = 32;
+    private static final int ENTRIES_PER_BYTE = 4;
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_MASK = 0x3;
+    /** The low bit of every 2-bit entry. */
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    private final int size;
+    private final long[] words;
+
+    // ******************************************
+
+    /**
+     * Creates an array of {@code size} entries, all {@link #LEFT}.
+     */
+    public TriStateArray(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        this.size = size;
+        this.words = new long[(size + ENTRIES_PER_WORD - 1) / ENTRIES_PER_WORD];
+    }
+
+    /**
+     * Creates an array of {@code size} entries, all set to {@code state}.
+     */
+    public TriStateArray(int size, int state) {
+        this(size);
+        fill(state);
+    }
+
+    // ******************************************
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        return (int) (words[index >>> 5] >>> ((index & 31) << 1)) & ENTRY_MASK;
+    }
+
+    public void set(int index, int state) {
+        checkIndex(index);
+        checkState(state);
+        int word = index >>> 5;
+        int shift = (index & 31) << 1;
+        words[word] = (words[word] & ~((long) ENTRY_MASK << shift)) | ((long) state << shift);
+    }
+
+    /**
+     * Sets every entry to {@code state}.
+     */
+    public void fill(int state) {
+        checkState(state);
+        Arrays.fill(words, repeat(state));
+        clearUnusedBits();
+    }
+
+    /**
+     * Sets the entries from {@code fromIndex} (inclusive) to {@code toIndex} (exclusive) to
+     * {@code state}, writing whole words where possible.
+     */
+    public void fill(int fromIndex, int toIndex, int state) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size);
+        }
+        checkState(state);
+
+        int index = fromIndex;
+        while (index < toIndex && (index & 31) != 0) {
+            set(index++, state);
+        }
+        if (index < toIndex) {
+            int fullWords = (toIndex - index) >>> 5;
+            int firstWord = index >>> 5;
+            Arrays.fill(words, firstWord, firstWord + fullWords, repeat(state));
+            index += fullWords << 5;
+        }
+        while (index < toIndex) {
+            set(index++, state);
+        }
+    }
+
+    /**
+     * @return the number of entries holding {@code state}
+     */
+    public int count(int state) {
+        checkState(state);
+        int count = 0;
+        int lastWord = words.length - 1;
+        for (int i = 0; i <= lastWord; i++) {
+            long matches = matches(words[i], state);
+            if (i == lastWord) {
+                matches &= validMask(lastWord);
+            }
+            count += Long.bitCount(matches);
+        }
+        return count;
+    }
+
+    /**
+     * @return the index of the first entry at or after {@code fromIndex} holding {@code state},
+     * or -1 if there is none
+     */
+    public int nextIndexOf(int state, int fromIndex) {
+        checkState(state);
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        for (int i = fromIndex >>> 5; i < words.length; i++) {
+            long matches = matches(words[i], state) & validMask(i);
+            if (i == (fromIndex >>> 5)) {
+                matches &= LOW_BITS << ((fromIndex & 31) << 1);
+            }
+            if (matches != 0) {
+                return (i << 5) + (Long.numberOfTrailingZeros(matches) >>> 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds entries that differ from another array of the same size, e.g. the state of the
+     * previous frame. Iterate with
+     * {@code for (int i = a.nextChangedIndex(b, 0); i >= 0; i = a.nextChangedIndex(b, i + 1))}.
+     *
+     * @return the index of the first entry at or after {@code fromIndex} that differs from
+     * {@code other}, or -1 if there is none
+     */
+    public int nextChangedIndex(TriStateArray other, int fromIndex) {
+        checkSameSize(other);
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        for (int i = fromIndex >>> 5; i < words.length; i++) {
+            long difference = words[i] ^ other.words[i];
+            long changed = (difference | (difference >>> 1)) & LOW_BITS;
+            if (i == (fromIndex >>> 5)) {
+                changed &= LOW_BITS << ((fromIndex & 31) << 1);
+            }
+            if (changed != 0) {
+                return (i << 5) + (Long.numberOfTrailingZeros(changed) >>> 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of entries that differ from {@code other}
+     */
+    public int countChanges(TriStateArray other) {
+        checkSameSize(other);
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            long difference = words[i] ^ other.words[i];
+            count += Long.bitCount((difference | (difference >>> 1)) & LOW_BITS);
+        }
+        return count;
+    }
+
+    /**
+     * Copies all entries of another array of the same size into this one.
+     */
+    public void copyFrom(TriStateArray other) {
+        checkSameSize(other);
+        System.arraycopy(other.words, 0, words, 0, words.length);
+    }
+
+    /**
+     * Packs the array into bytes: the size as a big-endian int, then 4 entries per byte with
+     * entry {@code i} in bits {@code 2 * (i % 4)} of byte {@code i / 4}. 10,000 entries take
+     * 2,504 bytes.
+     *
+     * @see #fromByteArray(byte[])
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[HEADER_SIZE + packedLength(size)];
+        bytes[0] = (byte) (size >>> 24);
+        bytes[1] = (byte) (size >>> 16);
+        bytes[2] = (byte) (size >>> 8);
+        bytes[3] = (byte) size;
+        for (int i = HEADER_SIZE; i < bytes.length; i++) {
+            int b = i - HEADER_SIZE;
+            bytes[i] = (byte) (words[b >>> 3] >>> ((b & 7) << 3));
+        }
+        return bytes;
+    }
+
+    /**
+     * Unpacks an array written by {@link #toByteArray()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid packed array
+     */
+    public static TriStateArray fromByteArray(byte[] bytes) {
+        if (bytes.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("missing header: " + bytes.length + " bytes");
+        }
+        int size = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        if (size < 0 || bytes.length != HEADER_SIZE + packedLength(size)) {
+            throw new IllegalArgumentException("length mismatch: " + bytes.length + " bytes for size " + size);
+        }
+
+        TriStateArray array = new TriStateArray(size);
+        long[] words = array.words;
+        for (int i = HEADER_SIZE; i < bytes.length; i++) {
+            int b = i - HEADER_SIZE;
+            words[b >>> 3] |= (long) (bytes[i] & 0xff) << ((b & 7) << 3);
+        }
+        array.clearUnusedBits();
+        for (long word : words) {
+            // 0b11 is the only invalid entry: both bits set.
+            if ((word & (word >>> 1) & LOW_BITS) != 0) {
+                throw new IllegalArgumentException("invalid state in packed array");
+            }
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TriStateArray)) {
+            return false;
+        }
+        TriStateArray other = (TriStateArray) o;
+        return size == other.size && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * size) + Arrays.hashCode(words);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    /**
+     * @return a word with the low bit of every entry that holds {@code state} set
+     */
+    private static long matches(long word, int state) {
+        long low = word & LOW_BITS;
+        long high = (word >>> 1) & LOW_BITS;
+        switch (state) {
+            case LEFT:
+                return ~(low | high) & LOW_BITS;
+            case MIDDLE:
+                return low & ~high;
+            default:
+                return high & ~low;
+        }
+    }
+
+    /**
+     * @return the low bits of the entries of word {@code i} that are inside the array
+     */
+    private long validMask(int i) {
+        int entries = size - (i << 5);
+        return (entries >= ENTRIES_PER_WORD) ? LOW_BITS : (LOW_BITS & ((1L << (entries << 1)) - 1));
+    }
+
+    private void clearUnusedBits() {
+        int entries = size & 31;
+        if (entries != 0) {
+            words[words.length - 1] &= (1L << (entries << 1)) - 1;
+        }
+    }
+
+    private static int packedLength(int size) {
+        return (int) (((long) size + ENTRIES_PER_BYTE - 1) / ENTRIES_PER_BYTE);
+    }
+
+    private static long repeat(int state) {
+        return LOW_BITS * state;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    private static void checkState(int state) {
+        if (state < LEFT || state > RIGHT) {
+            throw new IllegalArgumentException("invalid state: " + state);
+        }
+    }
+
+    private void checkSameSize(TriStateArray other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("size mismatch: " + size + " != " + other.size);
+        }
+    }
+}
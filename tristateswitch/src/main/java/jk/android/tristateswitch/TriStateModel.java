@@ -0,0 +1,155 @@
+package jk.android.tristateswitch;
+
+/**
+ * The framework-free core of a {@link TriStateSwitch}: its side, its geometry and its colors.
+ * <p>
+ * The view delegates hit-testing, thumb placement and the side-to-color mapping to this model
+ * and only keeps what is needed for drawing and animating. Sides are the int codes of
+ * {@link TriStateArray}, i.e. the ordinals of {@link TriStateSwitch.SIDE}. With a geometry of
+ * more positions, e.g. for a {@link SegmentedSwitch}, sides are position indices and each
+ * position takes its color from the left, neutral and right colors blended over the track.
+ * Since neither the model nor its {@link SwitchGeometry} and {@link ColorInterpolator} touch
+ * the Android framework, thousands of simulated switches can be driven on a plain JVM:
+ * <pre>
+ * TriStateModel model = new TriStateModel(Color.RED, Color.GRAY, Color.GREEN);
+ * model.layout(240, 120);
+ * if (model.tap(x)) {
+ *     float left = model.getThumbDestination();
+ *     int color = model.getTrackColor();
+ * }
+ * </pre>
+ * This class is not thread-safe.
+ */
+public final class TriStateModel {
+
+    // ******************************************
+
+    private final SwitchGeometry geometry;
+    private ColorInterpolator colors;
+
+    private int side;
+
+    // ******************************************
+
+    public TriStateModel(int leftSideColor, int neutralColor, int rightSideColor) {
+        this(new SwitchGeometry(), new ColorInterpolator(leftSideColor, neutralColor, rightSideColor));
+    }
+
+    public TriStateModel(SwitchGeometry geometry, ColorInterpolator colors) {
+        this.geometry = geometry;
+        this.colors = colors;
+        this.side = middlePosition();
+    }
+
+    // ******************************************
+
+    /**
+     * Solves the geometry for a view of the given size.
+     */
+    public void layout(int width, int height) {
+        geometry.layout(width, height);
+    }
+
+    /**
+     * Selects the side under a tap at {@code x}.
+     *
+     * @return whether the side changed
+     */
+    public boolean tap(float x) {
+        return setSide(geometry.hitTest(x));
+    }
+
+    /**
+     * Selects the side a dragged thumb settles on when released at {@code thumbLeft}: a fling
+     * faster than {@code minimumFlingVelocity} goes to the next side in its direction, otherwise
+     * the nearest side is chosen.
+     *
+     * @return the selected side
+     */
+    public int release(float thumbLeft, float velocity, float minimumFlingVelocity) {
+        side = (Math.abs(velocity) > minimumFlingVelocity)
+                ? geometry.nextSide(thumbLeft, velocity > 0)
+                : geometry.nearestSide(thumbLeft);
+        return side;
+    }
+
+    // ******************************************
+    // ****************************************** Getters & Setters
+    // ******************************************
+
+    public int getSide() {
+        return side;
+    }
+
+    /**
+     * @return whether the side changed
+     */
+    public boolean setSide(int side) {
+        if (side < 0 || side >= geometry.getPositionCount()) {
+            throw new IllegalArgumentException("Invalid side: " + side);
+        }
+        if (side == this.side) {
+            return false;
+        }
+        this.side = side;
+        return true;
+    }
+
+    /**
+     * @return the left edge of the thumb when it rests on the current side
+     */
+    public float getThumbDestination() {
+        return geometry.thumbDestination(side);
+    }
+
+    /**
+     * @return the track color of the current side
+     */
+    public int getTrackColor() {
+        return colorOf(side);
+    }
+
+    /**
+     * @return the track color when the thumb rests on the given position; with three positions
+     * the color of that side
+     */
+    public int colorOf(int position) {
+        int last = geometry.getPositionCount() - 1;
+        return (last == 2) ? colors.colorOf(position) : colors.colorAt((float) position / last);
+    }
+
+    public int getPositionCount() {
+        return geometry.getPositionCount();
+    }
+
+    /**
+     * Changes the number of positions and moves to the middle position.
+     */
+    public void setPositionCount(int positionCount) {
+        geometry.setPositionCount(positionCount);
+        side = middlePosition();
+    }
+
+    public SwitchGeometry getGeometry() {
+        return geometry;
+    }
+
+    public ColorInterpolator getColors() {
+        return colors;
+    }
+
+    /**
+     * Replaces the colors, e.g. with a private copy of colors that were shared between models.
+     */
+    public void setColors(ColorInterpolator colors) {
+        this.colors = colors;
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private int middlePosition() {
+        return (geometry.getPositionCount() - 1) / 2;
+    }
+}
@@ -1,30 +1,37 @@
 package jk.android.tristateswitch;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
-import android.animation.ArgbEvaluator;
-import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.content.Context;
-import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
-import android.support.v4.view.animation.FastOutSlowInInterpolator;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
-import android.util.Log;
-import android.util.TypedValue;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
 
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * A custom switch toggle that has three sides: left, middle, right
+ * <p>
+ * Everything switches of the same style have in common (attributes, paints, color tables,
+ * timing, touch configuration) lives in a shared {@link SwitchStyle}, so a switch itself only
+ * holds its bounds, its side and the state of a running touch or animation. Objects that only
+ * some switches need, such as the motion engine or the callback dispatcher, are created on
+ * first use.
  * @author Jamil Kafi
  * @version 1.0
  */
@@ -32,51 +39,75 @@ public class TriStateSwitch extends View {
 
     // ******************************************
 
-    private static final String TAG = TriStateSwitch.class.getSimpleName();
-
     public enum SIDE {LEFT, MIDDLE, RIGHT}
 
-    public static final int THUMB_SHAPE_RECTANGLE = 0;
-    public static final int THUMB_SHAPE_CIRCLE = 1;
-
-    private final int DEFAULT_RECTANGULAR_VIEW_CORNER_RADII = 32;
-    private final int DEFAULT_RECTANGULAR_THUMB_CORNER_RADII = 32;
-    private int DEFAULT_CIRCULAR_VIEW_CORNER_RADII = 0;      // To be calculated later
-    private int DEFAULT_CIRCULAR_THUMB_CORNER_RADII = 0;     // To be calculated later
-
-    private final String WIDTH_PROPERTY = "width";
-    private final String HEIGHT_PROPERTY = "height";
-
-    private int defaultWidthPx = 80;
-    private int defaultHeightPx = 40;
-
-    private int defaultWidthDp = 80;
-    private int defaultHeightDp = 40;
-
-    private int thumbColor = Color.WHITE;
-    private int neutralColor = Color.GRAY;
-    private int leftSideColor = Color.GRAY;
-    private int rightSideColor = Color.GRAY;
-    private Integer thumbSpeed = 500;   // 500 ms
-    private Integer thumbShape;
-    private int shapeTransformationSpeed = 500;
+    private static final SIDE[] SIDES = SIDE.values();
 
-    private RectF outerViewShape;
-    private AnimatableRectF thumbViewShape;
-    private Paint viewPaint, thumbPaint;
-
-    private int viewInnerPadding = 16;
-
-    private int rectangularViewCornerRadii = 32;
-    private int circularViewCornerRadii = 0;        // To be calculated later
-    private int rectangularThumbCornerRadii = 32;
-    private int circularThumbCornerRadii = 0;       // To be calculated later
-
-    private SIDE side = SIDE.MIDDLE;
+    /** Reports the coalesced events of a {@link SideChangeDispatcher} to an {@link ICallback}. */
+    private static final SideChangeDispatcher.Notifier<ICallback> CALLBACK_NOTIFIER = new SideChangeDispatcher.Notifier<ICallback>() {
+        @Override
+        public void notify(ICallback callback, int started, int ended, int positionCount) {
+            if (started >= 0) {
+                callback.onPositionChangeStarted(started);
+                callback.onSideChangeStarted(sideOf(started, positionCount));
+            }
+            if (ended >= 0) {
+                callback.onPositionChangeEnded(ended);
+                callback.onSideChangeEnded(sideOf(ended, positionCount));
+            }
+        }
+    };
+
+    private static final Rect VISIBLE_RECT = new Rect();    // shared by the batch API, main thread only
+    private static final RectF EMPTY_BOUNDS = new RectF();  // the track bounds before the first layout, read-only
+
+    // The state word posted from any thread: flags and a side ordinal or a position, 0 if none.
+    private static final int STATE_PENDING = 1 << 31;
+    private static final int STATE_ANIMATE = 1 << 30;
+    private static final int STATE_SIDE = 1 << 29;
+    private static final int STATE_VALUE_MASK = 0xffff;
+
+    private static final AtomicIntegerFieldUpdater<TriStateSwitch> PENDING_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(TriStateSwitch.class, "pendingState");
+
+    public static final int THUMB_SHAPE_RECTANGLE = ShapeMorph.RECTANGLE;
+    public static final int THUMB_SHAPE_CIRCLE = ShapeMorph.CIRCLE;
+    public static final int THUMB_SHAPE_SQUARE = ShapeMorph.SQUARE;
+    public static final int THUMB_SHAPE_ROUNDED = ShapeMorph.ROUNDED;
+
+    private SwitchStyle style;      // shared with all switches of the same style until a setter changes it
+    private int trackColor;         // the color of the shared track paint while this switch draws
+
+    // The last measurement, reused while the specs are unchanged and no re-layout was requested.
+    private int cachedWidthSpec, cachedHeightSpec;
+    private int cachedMeasuredWidth, cachedMeasuredHeight;
+    private boolean measureCacheValid;
+
+    private RectF outerViewShape = EMPTY_BOUNDS;     // shared by switches of the same size and style, read-only
+    private final RectF thumbViewShape = new RectF();
+    private ThumbMotion thumbMotion;        // created on the first side change
+    private RenderStats renderStats;        // created by the first getRenderStats()
+    private Bitmap trackMask, thumbMask, thumbShadow;
+    private float trackMaskRadius, thumbMaskRadius, thumbShadowMaskRadius;
+    private ValueAnimator shapeMorphAnimator;
+    private boolean prewarmEnabled;
+    private Prewarmer prewarmer;            // created when prewarming is enabled
+    private boolean atlasPlaybackEnabled;
+    private SpriteAtlas spriteAtlas;
+
+    private TriStateModel model;
+    private final ShapeMorph shapeMorph = new ShapeMorph();
 
     private ICallback iCallback;
+    private SideChangeDispatcher<ICallback> sideChangeDispatcher;   // created by the first callback
 
+    private VelocityTracker velocityTracker;
+    private float touchDownX;
+    private float thumbGrabOffset;
+    private boolean draggingThumb;
+    private boolean dragInterruptedMotion;  // the drag stopped a side change before it ended
 
+    private volatile int pendingState;      // the latest posted state, applied on the next frame
 
     // ******************************************
 
@@ -87,16 +118,15 @@ public class TriStateSwitch extends View {
      *                access the current theme, resources, etc.
      */
     public TriStateSwitch(Context context) {
-        // super(context);
         this(context, null);
     }
 
     /**
      * Constructor that is called when inflating a view from XML. This is called
      * when a view is being constructed from an XML file, supplying attributes
-     * that were specified in the XML file. This version uses a default style of
-     * 0, so the only attribute values applied are those in the Context's Theme
-     * and the given AttributeSet.
+     * that were specified in the XML file. This version uses the style set as
+     * <code>triStateSwitchStyle</code> in the Context's Theme, falling back to
+     * <code>Widget.TriStateSwitch</code>.
      * The method onFinishInflate() will be called after all children have been
      * added.
      *
@@ -106,41 +136,7 @@ public class TriStateSwitch extends View {
      * @see #TriStateSwitch(Context, AttributeSet, int)
      */
     public TriStateSwitch(Context context, @Nullable AttributeSet attrs) {
-        super(context, attrs);
-
-        // setWillNotDraw(false);   // used only when the parent is a ViewGroup (like LinearLayout, RelativeLayout, ....)
-
-        if (attrs != null) {
-            TypedArray typedArray = context.getTheme().obtainStyledAttributes(attrs, R.styleable.TriStateSwitch, 0, 0);
-            try {
-                if (typedArray.hasValue(R.styleable.TriStateSwitch_thumbColor)) {
-                    thumbColor = typedArray.getColor(R.styleable.TriStateSwitch_thumbColor, getResources().getColor(android.R.color.white));
-                }
-                if (typedArray.hasValue(R.styleable.TriStateSwitch_neutralColor)) {
-                    neutralColor = typedArray.getColor(R.styleable.TriStateSwitch_neutralColor, getResources().getColor(android.R.color.darker_gray));
-                }
-                if (typedArray.hasValue(R.styleable.TriStateSwitch_leftSideColor)) {
-                    leftSideColor = typedArray.getColor(R.styleable.TriStateSwitch_leftSideColor, 0);
-                }
-                if (typedArray.hasValue(R.styleable.TriStateSwitch_rightSideColor)) {
-                    rightSideColor = typedArray.getColor(R.styleable.TriStateSwitch_rightSideColor, 0);
-                }
-                if (typedArray.hasValue(R.styleable.TriStateSwitch_thumbSpeed)) {
-                    thumbSpeed = typedArray.getInteger(R.styleable.TriStateSwitch_thumbSpeed, 500);
-                }
-                if (typedArray.hasValue(R.styleable.TriStateSwitch_thumbShape)) {
-                    thumbShape = typedArray.getInteger(R.styleable.TriStateSwitch_thumbShape, 0);
-                }
-
-            } catch (Exception e) {
-                Log.e(TAG, e.getMessage());
-            } finally {
-                typedArray.recycle();
-            }
-        }
-
-        init();
-
+        this(context, attrs, R.attr.triStateSwitchStyle);
     }
 
     /**
@@ -161,8 +157,8 @@ public class TriStateSwitch extends View {
      * @see #TriStateSwitch(Context, AttributeSet)
      */
     public TriStateSwitch(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
-        // super(context, attrs, defStyleAttr);
-        this(context, attrs);
+        super(context, attrs, defStyleAttr);
+        init(SwitchStyle.obtain(context, attrs, defStyleAttr, R.style.Widget_TriStateSwitch));
     }
 
     /**
@@ -200,32 +196,19 @@ public class TriStateSwitch extends View {
      */
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     public TriStateSwitch(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
-        // super(context, attrs, defStyleAttr, defStyleRes);
-        this(context, attrs);
+        super(context, attrs, defStyleAttr, defStyleRes);
+        init(SwitchStyle.obtain(context, attrs, defStyleAttr, defStyleRes));
     }
 
     // ******************************************
 
-    private void init() {
-        outerViewShape = new RectF();
-        thumbViewShape = new AnimatableRectF();
-
-        viewPaint = new Paint();
-        viewPaint.setColor(neutralColor);
-        viewPaint.setStyle(Paint.Style.FILL);
-        viewPaint.setAntiAlias(true);
-
-        thumbPaint = new Paint();
-        thumbPaint.setColor(thumbColor);
-        thumbPaint.setStyle(Paint.Style.FILL);
-        thumbPaint.setAntiAlias(true);
-
-        defaultWidthDp = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, defaultWidthPx, getResources().getDisplayMetrics());
-        defaultHeightDp = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, defaultHeightPx, getResources().getDisplayMetrics());
-
-        // thumbPaint.setShadowLayer(24, 0, 0, Color.RED);
-        // Important for certain APIs
-        // setLayerType(LAYER_TYPE_SOFTWARE, thumbPaint);
+    private void init(SwitchStyle style) {
+        this.style = style;
+        model = new TriStateModel(new SwitchGeometry(), style.colors);
+        if (ShapeMorph.isPreset(style.thumbShape)) {
+            shapeMorph.setShape(style.thumbShape);
+        }
+        trackColor = model.getTrackColor();
     }
 
     // ******************************************
@@ -234,61 +217,102 @@ public class TriStateSwitch extends View {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-
-        Log.v("onMeasure w", MeasureSpec.toString(widthMeasureSpec));
-        Log.v("onMeasure h", MeasureSpec.toString(heightMeasureSpec));
-
-        /*
-        Note: when overriding the onMeasure(), he call to super.onMeasure() should be removed
-        and after doing the necessary measurements setMeasuredDimension(int width, int height)
-        should be called.
-
-        The widthMeasureSpec and heightMeasureSpec which are the requirements passed to us by the parent.
-
-        See this for help: https://medium.com/@quiro91/custom-view-mastering-onmeasure-a0a0bb11784d
-         */
-
-        // width/height suggested by the platform
-        int suggestedMinWidth = this.getSuggestedMinimumWidth();
-        int suggestedMinHeight = this.getSuggestedMinimumHeight();
+        if (measureCacheValid && widthMeasureSpec == cachedWidthSpec && heightMeasureSpec == cachedHeightSpec) {
+            setMeasuredDimension(cachedMeasuredWidth, cachedMeasuredHeight);
+            return;
+        }
 
-        // the following 4 lines are for understanding only
-        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
-        int widthSizeInPixels = MeasureSpec.getSize(widthMeasureSpec);
-        int heightMode = MeasureSpec.getMode(heightMeasureSpec);
-        int heightSizeInPixels = MeasureSpec.getSize(heightMeasureSpec);
+        // The default size, never smaller than what the geometry needs, plus the padding.
+        SwitchGeometry geometry = model.getGeometry();
+        int desiredWidth = Math.max(Math.max(style.defaultWidthPx, geometry.getMinimumWidth()), this.getSuggestedMinimumWidth())
+                + this.getPaddingLeft() + this.getPaddingRight();
+        int desiredHeight = Math.max(Math.max(style.defaultHeightPx, geometry.getMinimumHeight()), this.getSuggestedMinimumHeight())
+                + this.getPaddingTop() + this.getPaddingBottom();
+
+        cachedWidthSpec = widthMeasureSpec;
+        cachedHeightSpec = heightMeasureSpec;
+        cachedMeasuredWidth = measureDimension(desiredWidth, widthMeasureSpec);
+        cachedMeasuredHeight = measureDimension(desiredHeight, heightMeasureSpec);
+        measureCacheValid = true;
+        setMeasuredDimension(cachedMeasuredWidth, cachedMeasuredHeight);
+    }
 
-        // WRAP_CONTENT and MATCH_PARENT are NOT allowed (will default to desiredWidth and desiredHeight)
-        int desiredWidth = suggestedMinWidth + this.getPaddingLeft() + this.getPaddingRight();
-        int desiredHeight = suggestedMinHeight + this.getPaddingTop() + this.getPaddingBottom();
-        int measuredWidth = measureDimension(desiredWidth, widthMeasureSpec, WIDTH_PROPERTY);
-        int measuredHeight = measureDimension(desiredHeight, heightMeasureSpec, HEIGHT_PROPERTY);
-        setMeasuredDimension(measuredWidth, measuredHeight);
+    @Override
+    public void requestLayout() {
+        // Called by the framework when padding, layout params or visibility change.
+        measureCacheValid = false;
+        super.requestLayout();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
+        if (RenderStats.isFirstToggleFramePending()) {
+            long start = System.nanoTime();
+            drawSwitch(canvas);
+            RenderStats.recordFirstToggleFrame(System.nanoTime() - start);
+        } else {
+            drawSwitch(canvas);
+        }
+    }
+
+    private void drawSwitch(Canvas canvas) {
+        if (drawFromSpriteAtlas(canvas)) {
+            return;
+        }
+
+        // The paints are shared by the style, only the track color is per switch.
+        Paint viewPaint = style.trackPaint;
+        Paint thumbPaint = style.thumbPaint;
+        viewPaint.setColor(trackColor);
+        RenderCache renderCache = style.renderCache;
+
         // Draw the outer shape
-        if (outerViewShape.right == 0) {
-            initViewShape();
+        float viewCornerRadii = shapeMorph.getTrackRadius();
+        if (isShapeMorphing()) {
+            canvas.drawRoundRect(outerViewShape, viewCornerRadii, viewCornerRadii, viewPaint);
+        } else {
+            if (!isMaskValid(trackMask, outerViewShape, trackMaskRadius, viewCornerRadii)) {
+                trackMask = renderCache.getShapeMask(Math.round(outerViewShape.width()), Math.round(outerViewShape.height()),
+                        shapeMorph.getShape(), viewCornerRadii);
+                trackMaskRadius = viewCornerRadii;
+            }
+            drawShape(canvas, trackMask, outerViewShape, viewCornerRadii, viewPaint);
+        }
+
+        // Draw the labels of the sides inside the track
+        if (showsLabels()) {
+            drawTrackLabels(canvas);
+        }
+
+        // Draw the thumb shadow, using the shape being morphed to while morphing
+        if (style.hasThumbShadow()) {
+            drawThumbShadow(canvas, renderCache);
         }
-        canvas.drawRoundRect(outerViewShape,
-                ((thumbShape == THUMB_SHAPE_RECTANGLE) ? rectangularViewCornerRadii : circularViewCornerRadii),
-                ((thumbShape == THUMB_SHAPE_RECTANGLE) ? rectangularViewCornerRadii : circularViewCornerRadii),
-                viewPaint);
 
         // Draw the thumb
-        if (thumbViewShape.left == 0) {
-            initThumbShape();
+        float thumbCornerRadii = shapeMorph.getThumbRadius();
+        if (isShapeMorphing()) {
+            canvas.drawRoundRect(thumbViewShape, thumbCornerRadii, thumbCornerRadii, thumbPaint);
+        } else {
+            if (!isMaskValid(thumbMask, thumbViewShape, thumbMaskRadius, thumbCornerRadii)) {
+                thumbMask = renderCache.getShapeMask(Math.round(thumbViewShape.width()), Math.round(thumbViewShape.height()),
+                        shapeMorph.getShape(), thumbCornerRadii);
+                thumbMaskRadius = thumbCornerRadii;
+            }
+            drawShape(canvas, thumbMask, thumbViewShape, thumbCornerRadii, thumbPaint);
         }
-        canvas.drawRoundRect(thumbViewShape,
-                ((thumbShape == THUMB_SHAPE_RECTANGLE) ? rectangularThumbCornerRadii : circularThumbCornerRadii),
-                ((thumbShape == THUMB_SHAPE_RECTANGLE) ? rectangularThumbCornerRadii : circularThumbCornerRadii),
-                thumbPaint);
 
+        // Draw the label of the side the thumb is on, or heading to
+        if (showsLabels()) {
+            LabelLayout label = style.labels[model.getSide()];
+            if (label != null) {
+                Paint labelPaint = style.labelPaint;
+                labelPaint.setColor(style.thumbLabelTextColor);
+                label.draw(canvas, thumbViewShape.centerX(), thumbViewShape.centerY(), labelPaint);
+            }
+        }
     }
 
     @Override
@@ -302,39 +326,107 @@ public class TriStateSwitch extends View {
     }
 
     @Override
-    protected void onSizeChanged(int w, int h, int oldw, int oldh) {    // OPTIONAL
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
+
+        initViewShape(w, h);
+        initThumbShape();
+        if (isThumbMoving()) {
+            // The running motion aims at a destination of the old size.
+            thumbMotion.snapTo(model.getThumbDestination(), model.getTrackColor(), model.getSide());
+        }
     }
 
     @Override
-    protected void onAttachedToWindow() {   // OPTIONAL
+    protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        if (prewarmEnabled) {
+            prewarmer().schedule();
+        }
     }
 
     @Override
-    protected void onDetachedFromWindow() { // OPTIONAL
+    protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        if (prewarmer != null) {
+            prewarmer.cancel();
+        }
+    }
+
+    /**
+     * Saves the side and the shape, or the ones being animated to, in a single int.
+     */
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        return new SavedState(super.onSaveInstanceState(),
+                SavedState.pack(model.getSide(), model.getPositionCount(), shapeMorph.getShape()));
+    }
+
+    /**
+     * Shows the saved side and shape without animating and without delivering callbacks.
+     * The side is dropped if the number of positions differs from the saved one.
+     */
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+
+        setThumbShape(savedState.getShape(), false);
+        if (savedState.getPositionCount() == model.getPositionCount()) {
+            jumpToPosition(savedState.getPosition());
+        }
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        // float initialX = 0;
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
-                // initialX = event.getX();
+                touchDownX = event.getX();
+                draggingThumb = false;
+                if (velocityTracker == null) {
+                    velocityTracker = VelocityTracker.obtain();
+                } else {
+                    velocityTracker.clear();
+                }
+                velocityTracker.addMovement(event);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (velocityTracker != null) {
+                    velocityTracker.addMovement(event);
+                }
+                if (!draggingThumb) {
+                    // A batched move event may cross the touch slop at any of its historical
+                    // samples; anchor the drag at that exact sample so the thumb does not jump.
+                    int historySize = event.getHistorySize();
+                    for (int i = 0; (i < historySize) && !draggingThumb; i++) {
+                        startDragIfPastSlop(event.getHistoricalX(i));
+                    }
+                    startDragIfPastSlop(event.getX());
+                }
+                if (draggingThumb) {
+                    // Only the newest sample of the batch is drawn.
+                    moveThumbTo(event.getX() - thumbGrabOffset);
+                }
                 break;
             case MotionEvent.ACTION_UP:
-                // Log.d(TAG, String.format("rawX: %s, halfWidth: %s", event.getX(), this.getWidth() / 2));
-                repositionThumb(event);
+                if (draggingThumb) {
+                    velocityTracker.addMovement(event);
+                    velocityTracker.computeCurrentVelocity(1000, style.maximumFlingVelocity);
+                    releaseThumb(velocityTracker.getXVelocity());
+                } else {
+                    repositionThumb(event);
+                }
+                recycleVelocityTracker();
                 break;
-            case MotionEvent.ACTION_MOVE:
-                /*float currentX = event.getX();
-                if (currentX > initialX) {
-                    thumbViewShape.offsetTo(currentX, thumbViewShape.top);
-                    invalidate();
-                    requestLayout();
+            case MotionEvent.ACTION_CANCEL:
+                if (draggingThumb) {
+                    releaseThumb(0);
                 }
-                initialX = currentX;*/
+                recycleVelocityTracker();
                 break;
 
         }
@@ -351,294 +443,996 @@ public class TriStateSwitch extends View {
         return iCallback;
     }
 
+    /**
+     * Sets the callback notified about side changes, replacing the one set by a previous call.
+     * Callbacks added through {@link #addCallback(ICallback)} are not affected.
+     */
     public void setCallback(ICallback iCallback) {
+        if (this.iCallback != null) {
+            sideChangeDispatcher.remove(this.iCallback);
+        }
         this.iCallback = iCallback;
+        if (iCallback != null) {
+            sideChangeDispatcher().add(iCallback, null);
+        }
+    }
+
+    /**
+     * Adds a callback notified about side changes on the main thread.
+     * Rapid changes are coalesced: callbacks receive at most one start event per frame, for
+     * the latest side, and one end event once the thumb settled on it.
+     */
+    public void addCallback(ICallback callback) {
+        sideChangeDispatcher().add(callback, null);
+    }
+
+    /**
+     * Adds a callback notified about side changes on the given executor, for listeners doing
+     * heavy work such as persistence or network calls. Events that arrive while a delivery is
+     * still pending replace it, so a slow executor only sees the latest state.
+     */
+    public void addCallback(ICallback callback, @Nullable Executor executor) {
+        sideChangeDispatcher().add(callback, executor);
+    }
+
+    public void removeCallback(ICallback callback) {
+        if (sideChangeDispatcher != null) {
+            sideChangeDispatcher.remove(callback);
+        }
+        if (callback == iCallback) {
+            iCallback = null;
+        }
+    }
+
+    /**
+     * @return the rendering counters of this switch, e.g. the pixels redrawn per frame.
+     * Counting starts with the first call.
+     */
+    public RenderStats getRenderStats() {
+        if (renderStats == null) {
+            renderStats = new RenderStats();
+        }
+        return renderStats;
     }
 
     public SIDE getSide() {
-        return side;
+        return sideOf(model.getSide(), model.getPositionCount());
     }
 
     public void setSide(SIDE side) {
-        this.side = side;
+        animateToPosition(positionOf(side));
+    }
 
-        int destinationX;
-        switch (side) {
-            case LEFT:
-                destinationX = viewInnerPadding;
-                break;
-            case MIDDLE:
-                destinationX = this.getMeasuredWidth() / 2;
-                break;
-            case RIGHT:
-                destinationX = this.getMeasuredWidth() - viewInnerPadding;
-                break;
-            default:
-                destinationX = 0;
-                break;
+    /**
+     * Shows the given side immediately, e.g. when an adapter binds a recycled row.
+     * Unlike {@link #setSide(SIDE)} this does not animate, does not deliver any callback and
+     * stops a running side change of the previously bound item, dropping its pending callbacks
+     * and a side posted for it that was not applied yet.
+     */
+    public void bindSide(SIDE side) {
+        jumpToPosition(positionOf(side));
+    }
+
+    /**
+     * Requests a side change from any thread, animated like {@link #setSide(SIDE)}.
+     *
+     * @see #postSide(SIDE, boolean)
+     */
+    public void postSide(SIDE side) {
+        postSide(side, true);
+    }
+
+    /**
+     * Requests a side change from any thread, e.g. from a sync worker pushing server state.
+     * <p>
+     * Only the latest request per switch is kept, in a single atomic state word: all requests
+     * made between two frames are coalesced into one change applied on the main thread at the
+     * next frame, for all switches by one shared frame callback. Posting never blocks and the
+     * draw path takes no locks. While the user drags the thumb the request is held back until
+     * the thumb is released. A request not applied yet is dropped by a later
+     * {@link #setSide(SIDE)} or {@link #bindSide(SIDE)}. All other methods remain main thread only.
+     *
+     * @param animate whether to animate like {@link #setSide(SIDE)} or to jump like
+     *                {@link #bindSide(SIDE)}
+     */
+    public void postSide(SIDE side, boolean animate) {
+        postState(side.ordinal(), true, animate);
+    }
+
+    /**
+     * @return the number of positions the thumb can rest on, 3 for the left, middle and right side
+     */
+    public int getPositionCount() {
+        return model.getPositionCount();
+    }
+
+    int getPosition() {
+        return model.getSide();
+    }
+
+    /**
+     * Changes the number of positions, showing the middle one. Stops any running side change
+     * and measures the switch again, as its minimum width depends on the position count.
+     */
+    void changePositionCount(int positionCount) {
+        if (positionCount == model.getPositionCount()) {
+            return;
+        }
+        if (thumbMotion != null) {
+            thumbMotion.cancel();
+        }
+        model.setPositionCount(positionCount);
+        trackColor = model.getTrackColor();
+        requestLayout();    // also drops the measure cache
+        if (model.getGeometry().isLaidOut()) {
+            initViewShape(getWidth(), getHeight());
+            initThumbShape();
+            trackMask = null;
+            thumbMask = null;
+            thumbShadow = null;
+            invalidateTrack();
+        }
+    }
+
+    /**
+     * Stores a state in the state word, queueing the switch when no state was pending. Thread-safe.
+     *
+     * @param value a side ordinal if {@code side}, a position otherwise
+     */
+    void postState(int value, boolean side, boolean animate) {
+        int state = STATE_PENDING | (animate ? STATE_ANIMATE : 0) | (side ? STATE_SIDE : 0)
+                | (value & STATE_VALUE_MASK);
+        if (PENDING_STATE.getAndSet(this, state) == 0) {
+            PendingStates.enqueue(this);
         }
+    }
 
-        MotionEvent motionEvent = MotionEvent.obtain(100, 100, MotionEvent.ACTION_UP, destinationX, thumbViewShape.centerY(), 0);
-        repositionThumb(motionEvent);
+    /**
+     * Applies the posted state, if any, on the main thread. Kept pending while the thumb is
+     * dragged, see {@link #releaseThumb(float)}.
+     */
+    void applyPendingState() {
+        if (draggingThumb) {
+            return;
+        }
+        int state = PENDING_STATE.getAndSet(this, 0);
+        if (state == 0) {
+            return;
+        }
+
+        int value = state & STATE_VALUE_MASK;
+        int position = ((state & STATE_SIDE) != 0) ? positionOf(SIDES[value]) : value;
+        if (position >= model.getPositionCount()) {
+            // Posted for a position count that has changed since.
+            return;
+        }
+        // Not through animateToPosition/jumpToPosition, which would drop a state posted meanwhile.
+        if ((state & STATE_ANIMATE) != 0) {
+            if (position != model.getSide()) {
+                animateThumb(position);
+            }
+        } else {
+            showPosition(position);
+        }
+    }
+
+    /**
+     * Moves the thumb to the given position, animated unless the shared animation cap is reached.
+     * A state posted earlier is dropped, the latest request wins.
+     */
+    void animateToPosition(int position) {
+        PENDING_STATE.set(this, 0);
+        if (position != model.getSide()) {
+            animateThumb(position);
+        }
+    }
+
+    /**
+     * Shows the given position immediately, see {@link #bindSide(SIDE)}. A state posted earlier,
+     * e.g. for the item previously bound to a recycled switch, is dropped.
+     */
+    void jumpToPosition(int position) {
+        PENDING_STATE.set(this, 0);
+        showPosition(position);
+    }
+
+    /**
+     * Shows the side stored at {@code index} of a packed state array, see {@link #bindSide(SIDE)}.
+     */
+    public void bindSide(TriStateArray states, int index) {
+        bindSide(SIDES[states.get(index)]);
+    }
+
+    /**
+     * Changes the side of many switches at once, e.g. for a "reset all" action.
+     * All animating switches are stepped by one shared frame callback. Switches that are not on
+     * screen, or that would exceed {@link #getMaxConcurrentAnimations()}, snap to the side
+     * without animating. Must be called on the main thread.
+     */
+    public static void setSides(Collection<? extends TriStateSwitch> switches, SIDE side) {
+        FrameClock clock = FrameClock.getInstance();
+        for (TriStateSwitch view : switches) {
+            int position = view.positionOf(side);
+            if (view.model.getSide() != position) {
+                boolean animate = view.isOnScreen() && (view.isThumbMoving() || clock.hasCapacity());
+                view.animateThumb(position, animate);
+            }
+        }
+    }
+
+    /**
+     * @return how many switches of the process may animate at the same time
+     */
+    public static int getMaxConcurrentAnimations() {
+        return FrameClock.getInstance().getMaxConcurrentAnimations();
+    }
+
+    /**
+     * Sets how many switches of the process may animate at the same time. Side changes beyond
+     * this cap snap to their final state. Defaults to 64.
+     */
+    public static void setMaxConcurrentAnimations(int maxConcurrentAnimations) {
+        FrameClock.getInstance().setMaxConcurrentAnimations(maxConcurrentAnimations);
     }
 
     public int getThumbColor() {
-        return thumbColor;
+        return style.thumbColor;
     }
 
     public void setThumbColor(int thumbColor) {
-        this.thumbColor = thumbColor;
-        thumbPaint.setColor(thumbColor);
-        invalidate();
+        mutateStyle().setThumbColor(thumbColor);
+        spriteAtlas = null;
+        invalidateTrack();
     }
 
     public int getNeutralColor() {
-        return neutralColor;
+        return model.getColors().getNeutralColor();
     }
 
     public void setNeutralColor(int neutralColor) {
-        this.neutralColor = neutralColor;
-        viewPaint.setColor(neutralColor);
-        invalidate();
+        mutateStyle().colors.setNeutralColor(neutralColor);
+        trackColor = neutralColor;
+        spriteAtlas = null;
+        invalidateTrack();
     }
 
     public int getLeftSideColor() {
-        return leftSideColor;
+        return model.getColors().getLeftSideColor();
     }
 
     public void setLeftSideColor(int color) {
-        leftSideColor = color;
-        viewPaint.setColor(neutralColor);
-        invalidate();
+        mutateStyle().colors.setLeftSideColor(color);
+        trackColor = model.getColors().getNeutralColor();
+        spriteAtlas = null;
+        invalidateTrack();
     }
 
     public int getRightSideColor() {
-        return rightSideColor;
+        return model.getColors().getRightSideColor();
     }
 
     public void setRightSideColor(int rightSideColor) {
-        this.rightSideColor = rightSideColor;
-        viewPaint.setColor(neutralColor);
-        invalidate();
+        mutateStyle().colors.setRightSideColor(rightSideColor);
+        trackColor = model.getColors().getNeutralColor();
+        spriteAtlas = null;
+        invalidateTrack();
+    }
+
+    public boolean isLinearColorBlending() {
+        return model.getColors().isLinearLight();
+    }
+
+    /**
+     * Blends the track color between sides in linear light instead of sRGB space, which keeps
+     * the blend between a saturated side color and the neutral color from looking muddy.
+     */
+    public void setLinearColorBlending(boolean linearColorBlending) {
+        mutateStyle().colors.setLinearLight(linearColorBlending);
+        spriteAtlas = null;
+        invalidateTrack();
     }
 
     public Integer getThumbSpeed() {
-        return thumbSpeed;
+        return style.thumbSpeed;
     }
 
     public void setThumbSpeed(Integer thumbSpeed) {
-        this.thumbSpeed = thumbSpeed;
+        mutateStyle().thumbSpeed = thumbSpeed;
     }
 
     public Integer getThumbShape() {
-        return thumbShape;
+        return shapeMorph.getShape();
     }
 
     /**
-     * Changes the shape of the thumb.
-     * @param thumbShape the new shape, can be either TriStateSwitch.THUMB_SHAPE_RECTANGLE or TriStateSwitch.THUMB_SHAPE_CIRCLE
+     * Changes the shape of the track and the thumb, which morph together when animated.
+     * @param thumbShape the new shape, one of the TriStateSwitch.THUMB_SHAPE_* constants or an id
+     *                   returned by {@link #addThumbShape(float, float, float, float)}
      */
     public void setThumbShape(Integer thumbShape, boolean animateTransformation) {
-        // ToDo implement the transformation animation
-        if (thumbShape == THUMB_SHAPE_RECTANGLE || thumbShape == THUMB_SHAPE_CIRCLE) {
-            if (!this.thumbShape.equals(thumbShape)) {
-
-                this.thumbShape = thumbShape;
-                if (animateTransformation) {
-                    animateViewShapeMorphing();
-                } else {
-                    invalidate();
+        if (thumbShape != null && ShapeMorph.isPreset(thumbShape) && thumbShape != shapeMorph.getShape()) {
+            spriteAtlas = null;
+            if (animateTransformation) {
+                animateViewShapeMorphing(thumbShape);
+            } else {
+                if (shapeMorphAnimator != null) {
+                    shapeMorphAnimator.cancel();
                 }
+                shapeMorph.setShape(thumbShape);
+                invalidateTrack();
+            }
+        }
+    }
+
+    /**
+     * Adds a shape that every switch can use with {@link #setThumbShape(Integer, boolean)}. Each
+     * corner radius is a fixed size plus a roundness, the fraction of half the shorter side that
+     * is added on top, so the shape fits any switch size. Must be called on the main thread.
+     *
+     * @param trackCornerRadius the fixed part of the track corner radius, in px
+     * @param trackRoundness    0 for the fixed radius only, 1 for a pill shaped track
+     * @param thumbCornerRadius the fixed part of the thumb corner radius, in px
+     * @param thumbRoundness    0 for the fixed radius only, 1 for a round thumb
+     * @return the id of the new shape
+     * @throws IllegalStateException if {@link ShapeMorph#MAX_PRESETS} shapes exist already
+     */
+    public static int addThumbShape(float trackCornerRadius, float trackRoundness, float thumbCornerRadius, float thumbRoundness) {
+        return ShapeMorph.addPreset(trackCornerRadius, trackRoundness, thumbCornerRadius, thumbRoundness);
+    }
+
+    public boolean isAtlasPlaybackEnabled() {
+        return atlasPlaybackEnabled;
+    }
+
+    /**
+     * Enables playback of side changes from a pre-rendered sprite atlas. The atlas holds the
+     * whole transition of this switch's style, is built once in the background and is shared by
+     * all switches with identical attributes, so each animation frame is a single bitmap draw.
+     * Useful for very long lists; the switch draws live geometry until the atlas is ready.
+     * Switches with a thumb shadow or labels always draw live geometry.
+     */
+    public void setAtlasPlaybackEnabled(boolean atlasPlaybackEnabled) {
+        this.atlasPlaybackEnabled = atlasPlaybackEnabled;
+        if (!atlasPlaybackEnabled) {
+            spriteAtlas = null;
+        }
+    }
+
+    public float getThumbShadowRadius() {
+        return style.thumbShadowRadius;
+    }
+
+    public float getThumbShadowDy() {
+        return style.thumbShadowDy;
+    }
+
+    public int getThumbShadowColor() {
+        return style.thumbShadowColor;
+    }
+
+    /**
+     * Draws a shadow below the thumb. The blurred outline is rendered once per size, shape and
+     * blur radius and shared by all switches, so the switch stays hardware-accelerated and the
+     * shadow costs a single bitmap draw per frame.
+     *
+     * @param radius the blur radius in px, rounded to whole px; 0 removes the shadow
+     * @param dy     the vertical offset of the shadow in px
+     * @param color  the shadow color, usually black with a low alpha
+     */
+    public void setThumbShadow(float radius, float dy, int color) {
+        invalidateTrack();  // the area of the old shadow
+        mutateStyle().setThumbShadow(Math.max(radius, 0), dy, color);
+        thumbShadow = null;
+        spriteAtlas = null;
+        invalidateTrack();
+    }
+
+    public boolean isShowLabels() {
+        return style.showLabels;
+    }
+
+    /**
+     * Shows the labels of the sides inside the track, and the label of the current side on the
+     * thumb. Defaults to false.
+     */
+    public void setShowLabels(boolean showLabels) {
+        mutateStyle().showLabels = showLabels;
+        invalidateTrack();
+    }
+
+    /**
+     * @return the label of the given side, or null if it has none
+     */
+    @Nullable
+    public CharSequence getLabel(SIDE side) {
+        LabelLayout label = style.labels[side.ordinal()];
+        return (label != null) ? new String(label.text) : null;
+    }
+
+    /**
+     * Sets the labels of the sides, e.g. "Off", "Auto" and "On". Each label is measured once
+     * and the measurement is shared by all switches showing the same text in the same size.
+     * Pass null for a side without label. Labels are only drawn when
+     * {@link #setShowLabels(boolean)} is enabled.
+     */
+    public void setLabels(@Nullable CharSequence left, @Nullable CharSequence middle, @Nullable CharSequence right) {
+        mutateStyle().setLabels(left, middle, right);
+        invalidateTrack();
+    }
+
+    public float getLabelTextSize() {
+        return style.labelPaint.getTextSize();
+    }
+
+    /**
+     * @param labelTextSize the text size of the labels, in px
+     */
+    public void setLabelTextSize(float labelTextSize) {
+        mutateStyle().setLabelTextSize(labelTextSize);
+        invalidateTrack();
+    }
+
+    public int getLabelTextColor() {
+        return style.labelTextColor;
+    }
+
+    public void setLabelTextColor(int labelTextColor) {
+        mutateStyle().labelTextColor = labelTextColor;
+        invalidateTrack();
+    }
+
+    public int getThumbLabelTextColor() {
+        return style.thumbLabelTextColor;
+    }
+
+    public void setThumbLabelTextColor(int thumbLabelTextColor) {
+        mutateStyle().thumbLabelTextColor = thumbLabelTextColor;
+        invalidateTrack();
+    }
+
+    public boolean isPrewarmEnabled() {
+        return prewarmEnabled;
+    }
+
+    /**
+     * Prepares the first side change while the main thread is idle after the switch is
+     * attached: the motion engine and the shape animator are created and every side is drawn
+     * once offscreen in every shape, so the first tap does not pay for it. Switches of the same
+     * style and size share the work, so enabling it on the first switch of a screen is enough.
+     * Defaults to false. See {@link RenderStats#getFirstToggleFrameTimeNanos()}.
+     */
+    public void setPrewarmEnabled(boolean prewarmEnabled) {
+        this.prewarmEnabled = prewarmEnabled;
+        if (!prewarmEnabled) {
+            if (prewarmer != null) {
+                prewarmer.cancel();
             }
+        } else if (getWindowToken() != null) {
+            prewarmer().schedule();
         }
     }
 
     public int getShapeTransformationSpeed() {
-        return shapeTransformationSpeed;
+        return style.shapeTransformationSpeed;
     }
 
     public void setShapeTransformationSpeed(int shapeTransformationSpeed) {
-        this.shapeTransformationSpeed = shapeTransformationSpeed;
+        mutateStyle().shapeTransformationSpeed = shapeTransformationSpeed;
     }
 
     // ******************************************
     // ****************************************** Helper methods
     // ******************************************
 
-    private int measureDimension(int desiredSize, int measureSpec, String property) {
-        int result;
-
+    private static int measureDimension(int desiredSize, int measureSpec) {
         int specMode = MeasureSpec.getMode(measureSpec);
         int specSize = MeasureSpec.getSize(measureSpec);
 
-        /* The following code is applicable and valid for other different views,
-            but for the current view we will force fixed dimensions to avoid problems */
-        /*if (specMode == MeasureSpec.EXACTLY) {  // the user has chosen a fixed size, so use the suggested size
-            result = specSize;
-        } else {    // the user has chosen either match_parent or wrap_content
-            result = desiredSize;
-            if (specMode == MeasureSpec.AT_MOST) {
-                result = Math.min(result, specSize);
-            }
-        }*/
+        if (specMode == MeasureSpec.EXACTLY) {  // the user has chosen a fixed size, or match_parent
+            return specSize;
+        } else if (specMode == MeasureSpec.AT_MOST) {   // wrap_content inside a bounded parent
+            return Math.min(desiredSize, specSize);
+        }
+        return desiredSize;
+    }
 
-        if (property.equals(WIDTH_PROPERTY)) {
-            result = defaultWidthDp;
-        } else {
-            result = defaultHeightDp;
+    /**
+     * Shows the given position immediately, leaving the state word alone.
+     */
+    private void showPosition(int position) {
+        // Events of the previous side change must not reach callbacks after the jump.
+        if (sideChangeDispatcher != null) {
+            sideChangeDispatcher.clear();
+        }
+        if (!model.setSide(position) && !isThumbMoving()) {
+            return;
         }
 
-        return result;
+        if (thumbMotion != null) {
+            thumbMotion.cancel();
+        }
+        trackColor = model.getTrackColor();
+
+        // Before the first layout the thumb is placed on this side when its shape is initialized.
+        if (thumbViewShape.width() != 0) {
+            thumbViewShape.offsetTo(model.getThumbDestination(), thumbViewShape.top);
+            invalidateTrack();
+        }
     }
 
-    private void initViewShape() {
-        Log.d(TAG, "initializing outer view coordinates...");
-        outerViewShape.set(viewInnerPadding ,
-                viewInnerPadding,
-                this.getMeasuredWidth() - viewInnerPadding,
-                this.getMeasuredHeight() - viewInnerPadding);
-        circularViewCornerRadii = (int) outerViewShape.height() / 2;
-        DEFAULT_CIRCULAR_VIEW_CORNER_RADII = circularViewCornerRadii;
+    private void initViewShape(int width, int height) {
+        // The size-dependent tables are shared with all switches of the same size and style.
+        SwitchStyle.SizeTables tables = style.sizeTables(model.getGeometry(), width, height);
+        model.getGeometry().layout(tables.geometry);
+        outerViewShape = tables.trackBounds;
+        shapeMorph.layout(tables.radii());
+        spriteAtlas = null;
     }
 
     private void initThumbShape() {
-        Log.d(TAG, "initializing thumb coordinates...");
-        // int thumbSize = (this.getMeasuredHeight() / 2) - padding;
-        /*int thumbLeft = (this.getMeasuredWidth() / 2) - (thumbSize / 2);
-        int thumbRight = thumbLeft + thumbSize;
-        int thumbTop = (this.getMeasuredHeight() / 2) - (thumbSize / 2);
-        int thumbBottom = thumbTop + thumbSize;*/
+        // The thumb rests on the current side, which may have been changed before the view was laid out.
+        SwitchGeometry geometry = model.getGeometry();
+        float thumbLeft = model.getThumbDestination();
+        thumbViewShape.set(thumbLeft,
+                geometry.getThumbTop(),
+                thumbLeft + geometry.getThumbWidth(),
+                geometry.getThumbBottom());
 
-        int thumbLeft = this.getMeasuredWidth() / 3;
-        int thumbRight = thumbLeft + (this.getMeasuredWidth() / 3);
-        int thumbTop = 24;
-        int thumbBottom = this.getMeasuredHeight() - 24;
+        spriteAtlas = null;
 
-        thumbViewShape.set(thumbLeft, thumbTop, thumbRight, thumbBottom);
+    }
 
-        circularThumbCornerRadii = (int) thumbViewShape.width() / 2;
-        DEFAULT_CIRCULAR_THUMB_CORNER_RADII = circularThumbCornerRadii;
+    private void repositionThumb(MotionEvent event) {
+        // Compare against the side the thumb is heading to rather than where it currently is,
+        // so that a tap during a running motion retargets it.
+        int side = model.getGeometry().hitTest(event.getX());
+        if (side != model.getSide()) {
+            animateThumb(side);
+        }
+    }
 
+    private float thumbDestination(int side) {
+        return model.getGeometry().thumbDestination(side);
     }
 
-    private void repositionThumb(MotionEvent event) {
-        float thumbWidth = thumbViewShape.width();
-        if (event.getX() < (outerViewShape.width() / 3)) {
-            // thumbViewShape.offsetTo(outerViewShape.left + viewInnerPadding, thumbViewShape.top);
-            if (thumbViewShape.left > (outerViewShape.width() / 3)) {
-                animateThumb(thumbViewShape.left,
-                        (outerViewShape.left + viewInnerPadding),
-                        thumbViewShape.right,
-                        (outerViewShape.left + thumbWidth + viewInnerPadding),
-                        SIDE.LEFT);
+    private void startDragIfPastSlop(float x) {
+        if (Math.abs(x - touchDownX) > style.touchSlop) {
+            draggingThumb = true;
+            dragInterruptedMotion = isThumbMoving();
+            if (thumbMotion != null) {
+                thumbMotion.cancel();
             }
-        } else if (event.getX() > ((outerViewShape.width()/* - viewInnerPadding*/) - (outerViewShape.width() / 3))) {
-            // thumbViewShape.offsetTo((outerViewShape.right - thumbViewShape.width() - viewInnerPadding), thumbViewShape.top);
-            if (thumbViewShape.left < outerViewShape.centerX()) {
-                animateThumb(thumbViewShape.left,
-                        (outerViewShape.width() - thumbWidth),
-                        thumbViewShape.right,
-                        outerViewShape.width(),
-                        SIDE.RIGHT);
+            thumbGrabOffset = x - thumbViewShape.left;
+            if (getParent() != null) {
+                getParent().requestDisallowInterceptTouchEvent(true);
             }
-        } else {
-            // thumbViewShape.offsetTo(((outerViewShape.width() / 2) - (thumbViewShape.width() / 2) + viewInnerPadding), thumbViewShape.top);
-            if ((thumbViewShape.left < (outerViewShape.width() / 3)) || (thumbViewShape.left > outerViewShape.centerX())) {
-                animateThumb(thumbViewShape.left,
-                        (this.getMeasuredWidth() / 3),
-                        thumbViewShape.right,
-                        (this.getMeasuredWidth() - (this.getMeasuredWidth() / 3)),
-                        SIDE.MIDDLE);
+        }
+    }
+
+    /**
+     * Moves the thumb under the finger and invalidates the area it covered and now covers.
+     */
+    private void moveThumbTo(float left) {
+        left = model.getGeometry().clampThumbLeft(left);
+
+        float previousLeft = thumbViewShape.left;
+        float previousRight = thumbViewShape.right;
+        thumbViewShape.right = left + thumbViewShape.width();
+        thumbViewShape.left = left;
+
+        invalidateThumb(previousLeft, previousRight, false);
+    }
+
+    /**
+     * Invalidates the union of the previous and the current thumb bounds, or the whole track
+     * when its color changed as well, which is every frame of a side change between sides of
+     * different colors. See {@link #invalidateArea(int, int, int, int)} for when the bounds
+     * actually limit the redraw.
+     */
+    void invalidateThumb(float previousLeft, float previousRight, boolean trackChanged) {
+        if (trackChanged || (atlasPlaybackEnabled && isThumbMoving())) {
+            invalidateTrack();
+            return;
+        }
+
+        // One extra pixel on each side covers the anti-aliased edge, plus the shadow if any.
+        int extent = style.getThumbShadowExtent() + 1;
+        int dirtyLeft = (int) Math.floor(Math.min(previousLeft, thumbViewShape.left)) - extent;
+        int dirtyTop = (int) Math.floor(thumbViewShape.top) - extent;
+        int dirtyRight = (int) Math.ceil(Math.max(previousRight, thumbViewShape.right)) + extent;
+        int dirtyBottom = (int) Math.ceil(thumbViewShape.bottom) + extent;
+
+        invalidateArea(dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+    }
+
+    /**
+     * Invalidates the track, which also contains the thumb, and the thumb shadow if any.
+     */
+    private void invalidateTrack() {
+        int extent = style.getThumbShadowExtent() + 1;
+        int dirtyLeft = (int) Math.floor(outerViewShape.left) - extent;
+        int dirtyTop = (int) Math.floor(outerViewShape.top) - extent;
+        int dirtyRight = (int) Math.ceil(outerViewShape.right) + extent;
+        int dirtyBottom = (int) Math.ceil(outerViewShape.bottom) + extent;
+
+        invalidateArea(dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+    }
+
+    /**
+     * Invalidates the given area and records what is actually redrawn. Hardware accelerated
+     * rendering on API 21+ ignores the dirty rect and redraws the whole view, so the area only
+     * limits the redraw with software rendering and on older versions.
+     */
+    @SuppressWarnings("deprecation")
+    private void invalidateArea(int left, int top, int right, int bottom) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && isHardwareAccelerated()) {
+            if (renderStats != null) {
+                renderStats.recordInvalidation(0, 0, getWidth(), getHeight());
             }
+            invalidate();
+            return;
+        }
+
+        if (renderStats != null) {
+            renderStats.recordInvalidation(left, top, right, bottom);
+        }
+        invalidate(left, top, right, bottom);
+    }
+
+    /**
+     * Lets go of a dragged thumb: a fling moves it to the next side in the fling direction,
+     * otherwise it settles on the nearest side. The finger velocity is handed to the motion.
+     * A thumb dropped back on its side returns there without a start or end event.
+     */
+    private void releaseThumb(float velocity) {
+        draggingThumb = false;
+
+        int previous = model.getSide();
+        int target = model.release(thumbViewShape.left, velocity, style.minimumFlingVelocity);
+        if (target == previous && !dragInterruptedMotion) {
+            // Dropped back on its side: not a side change, so no callbacks.
+            thumbMotion().returnTo(thumbDestination(target), destinationColor(target), target, style.thumbSpeed, velocity);
+        } else {
+            thumbMotion().animateTo(thumbDestination(target), destinationColor(target), target, style.thumbSpeed, velocity);
+        }
+
+        // A state posted during the drag wins over the release.
+        if (pendingState != 0) {
+            applyPendingState();
         }
     }
 
-    private void animateThumb(float startLeft, float endLeft, float startRight, float endRight, final SIDE side) {
+    private void recycleVelocityTracker() {
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
+    }
 
-        this.side = side;
+    private void animateThumb(int side) {
+        // Switches beyond the shared animation cap snap to their side instead of animating.
+        animateThumb(side, isThumbMoving() || FrameClock.getInstance().hasCapacity());
+    }
 
-        ObjectAnimator leftAnimator = ObjectAnimator.ofFloat(thumbViewShape, "left", startLeft, endLeft);
-        ObjectAnimator rightAnimator = ObjectAnimator.ofFloat(thumbViewShape, "right", startRight, endRight);
+    private void animateThumb(int side, boolean animate) {
+        if (RenderStats.isFirstTogglePending()) {
+            long start = System.nanoTime();
+            changeSide(side, animate);
+            RenderStats.recordFirstToggle(System.nanoTime() - start, Prewarmer.hasPrewarmed());
+        } else {
+            changeSide(side, animate);
+        }
+    }
 
-        ObjectAnimator colorAnimator = ObjectAnimator.ofObject(viewPaint, "color", new ArgbEvaluator(), destinationColor(side));
+    private void changeSide(int side, boolean animate) {
+        model.setSide(side);
 
-        leftAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                // Invalidate the view to perform a re-draw.
-                postInvalidate();
+        if (thumbViewShape.width() == 0) {
+            // Not laid out yet: the thumb is placed on this side when its shape is initialized.
+            trackColor = destinationColor(side);
+            onThumbMotionStarted(side);
+            onThumbMotionEnded(side);
+        } else if (animate) {
+            thumbMotion().animateTo(thumbDestination(side), destinationColor(side), side, style.thumbSpeed);
+        } else {
+            thumbMotion().snapTo(thumbDestination(side), destinationColor(side), side);
+        }
+    }
+
+    private boolean isOnScreen() {
+        return isShown() && getGlobalVisibleRect(VISIBLE_RECT);
+    }
+
+    void onThumbMotionStarted(int side) {
+        // Deliver side change started event.
+        if (sideChangeDispatcher != null) {
+            sideChangeDispatcher.dispatchStarted(side, model.getPositionCount());
+        }
+    }
+
+    void onThumbMotionEnded(int side) {
+        // Deliver side change ended event.
+        if (sideChangeDispatcher != null) {
+            sideChangeDispatcher.dispatchEnded(side, model.getPositionCount());
+        }
+    }
+
+    int getTrackColor() {
+        return trackColor;
+    }
+
+    void setTrackColor(int trackColor) {
+        this.trackColor = trackColor;
+    }
+
+    ColorInterpolator getColors() {
+        return model.getColors();
+    }
+
+    SwitchStyle getStyle() {
+        return style;
+    }
+
+    /**
+     * Runs the code paths of a side change and a shape morph once and draws every side in every
+     * shape into the given canvas, see {@link #setPrewarmEnabled(boolean)}. The visible state
+     * is left unchanged.
+     *
+     * @return false if the switch is busy and should be prewarmed later
+     */
+    boolean prewarm(Canvas canvas) {
+        if (isThumbMoving() || isShapeMorphing() || draggingThumb || !model.getGeometry().isLaidOut()) {
+            return false;
+        }
+
+        thumbMotion();
+        shapeMorphAnimator();
+        ColorInterpolator colors = getColors();
+        for (int from = 0; from < SIDES.length; from++) {
+            for (int to = 0; to < SIDES.length; to++) {
+                colors.transitionColor(from, to, 0);
             }
-        });
+        }
 
-        AnimatorSet animatorSet = new AnimatorSet();
-        animatorSet.setDuration(this.thumbSpeed);
-        animatorSet.setInterpolator(new FastOutSlowInInterpolator());
-        animatorSet.playTogether(leftAnimator, rightAnimator, colorAnimator);
-        animatorSet.addListener(new AnimatorListenerAdapter() {
+        int shape = shapeMorph.getShape();
+        float thumbLeft = thumbViewShape.left;
+        int color = trackColor;
+        for (int i = 0, count = ShapeMorph.getPresetCount(); i < count; i++) {
+            shapeMorph.setShape(i);
+            for (int side = 0, positionCount = model.getPositionCount(); side < positionCount; side++) {
+                thumbViewShape.offsetTo(model.getGeometry().thumbDestination(side), thumbViewShape.top);
+                trackColor = model.colorOf(side);
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                drawSwitch(canvas);
+            }
+        }
+        // A frame halfway through a morph, which draws the outlines live.
+        shapeMorph.morphTo(shape);
+        shapeMorph.setFraction(0.5f);
+        drawSwitch(canvas);
+
+        shapeMorph.setShape(shape);
+        thumbViewShape.offsetTo(thumbLeft, thumbViewShape.top);
+        trackColor = color;
+        return true;
+    }
 
-            @Override
-            public void onAnimationStart(Animator animation) {
-                super.onAnimationStart(animation);
+    private Prewarmer prewarmer() {
+        if (prewarmer == null) {
+            prewarmer = new Prewarmer(this);
+        }
+        return prewarmer;
+    }
 
-                // Deliver side change started event.
-                if (iCallback != null) {
-                    iCallback.onSideChangeStarted(side);
+    private ThumbMotion thumbMotion() {
+        if (thumbMotion == null) {
+            thumbMotion = new ThumbMotion(this, thumbViewShape);
+        }
+        return thumbMotion;
+    }
+
+    private boolean isThumbMoving() {
+        return (thumbMotion != null) && thumbMotion.isRunning();
+    }
+
+    private SideChangeDispatcher<ICallback> sideChangeDispatcher() {
+        if (sideChangeDispatcher == null) {
+            sideChangeDispatcher = new SideChangeDispatcher<>(new SideChangeDispatcher.FrameScheduler() {
+                @Override
+                public void postOnNextFrame(Runnable task) {
+                    ViewCompat.postOnAnimation(TriStateSwitch.this, task);
                 }
+            }, CALLBACK_NOTIFIER);
+        }
+        return sideChangeDispatcher;
+    }
+
+    /**
+     * @return the style of this switch, copied first if it is shared with other switches
+     */
+    private SwitchStyle mutateStyle() {
+        SwitchStyle mutated = style.mutate();
+        if (mutated != style) {
+            style = mutated;
+            model.setColors(mutated.colors);
+        }
+        return mutated;
+    }
+
+    /**
+     * Draws the whole switch as one cell of the shared sprite atlas while the thumb is moving.
+     *
+     * @return whether the frame was drawn from the atlas
+     */
+    private boolean drawFromSpriteAtlas(Canvas canvas) {
+        if (!atlasPlaybackEnabled || !isThumbMoving() || isShapeMorphing() || style.hasThumbShadow() || showsLabels()) {
+            return false;
+        }
+
+        int fromSide = thumbMotion.getFromSide();
+        if (fromSide < 0) {
+            // Blended from a halfway color, which has no pre-rendered frames.
+            return false;
+        }
+
+        float minLeft = thumbDestination(0);
+        float maxLeft = thumbDestination(model.getPositionCount() - 1);
+        if (spriteAtlas == null) {
+            if (!SpriteAtlas.canBuild()) {
+                // Shortly after running out of memory: not even a spec is allocated per frame.
+                return false;
             }
+            float viewCornerRadii = shapeMorph.getTrackRadius();
+            float thumbCornerRadii = shapeMorph.getThumbRadius();
+            spriteAtlas = SpriteAtlas.obtain(new SpriteAtlas.Spec(
+                    Math.round(outerViewShape.width()), Math.round(outerViewShape.height()), viewCornerRadii,
+                    minLeft - outerViewShape.left, maxLeft - outerViewShape.left, thumbViewShape.top - outerViewShape.top,
+                    thumbViewShape.width(), thumbViewShape.height(), thumbCornerRadii,
+                    style.thumbColor, getLeftSideColor(), getNeutralColor(), getRightSideColor(), isLinearColorBlending()), this);
+        }
+        if (spriteAtlas == null || !spriteAtlas.isReady() || maxLeft <= minLeft) {
+            return false;
+        }
 
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                super.onAnimationEnd(animation);
+        boolean direct = Math.abs(thumbMotion.getToSide() - fromSide) == 2;     // LEFT <-> RIGHT
+        spriteAtlas.draw(canvas, (thumbViewShape.left - minLeft) / (maxLeft - minLeft), direct, outerViewShape);
+        return true;
+    }
 
-                // Deliver side change ended event.
-                if (iCallback != null) {
-                    iCallback.onSideChangeEnded(side);
-                }
+    /**
+     * Goes back to live drawing when the given atlas could not be built.
+     */
+    void dropSpriteAtlas(SpriteAtlas atlas) {
+        if (spriteAtlas == atlas) {
+            spriteAtlas = null;
+        }
+    }
+
+    private boolean isShapeMorphing() {
+        return shapeMorph.isMorphing();
+    }
+
+    /**
+     * Draws the label of each side centered in its third of the track.
+     */
+    private void drawTrackLabels(Canvas canvas) {
+        Paint labelPaint = style.labelPaint;
+        labelPaint.setColor(style.labelTextColor);
+        float third = outerViewShape.width() / 3;
+        float centerY = outerViewShape.centerY();
+        for (int side = 0; side < SIDES.length; side++) {
+            LabelLayout label = style.labels[side];
+            if (label != null) {
+                label.draw(canvas, outerViewShape.left + (third * side) + (third / 2), centerY, labelPaint);
             }
-        });
-        animatorSet.start();
+        }
     }
 
-    private void animateViewShapeMorphing() {
-        Log.d(TAG, "animating view transformation");
-        ValueAnimator viewRadiiAnimator = (thumbShape == THUMB_SHAPE_RECTANGLE)
-                ? ValueAnimator.ofInt(DEFAULT_CIRCULAR_VIEW_CORNER_RADII, DEFAULT_RECTANGULAR_VIEW_CORNER_RADII)
-                : ValueAnimator.ofInt(DEFAULT_RECTANGULAR_VIEW_CORNER_RADII, DEFAULT_CIRCULAR_VIEW_CORNER_RADII);
-        viewRadiiAnimator.setDuration(shapeTransformationSpeed);
-        viewRadiiAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                // Log.d(TAG, String.format("transformation update: %d", (int) animation.getAnimatedValue()));
-                if (thumbShape == THUMB_SHAPE_RECTANGLE) {
-                    rectangularViewCornerRadii = (int) animation.getAnimatedValue();
-                    rectangularThumbCornerRadii = (int) animation.getAnimatedValue();
-                } else {
-                    circularViewCornerRadii = (int) animation.getAnimatedValue();
-                    circularThumbCornerRadii = (int) animation.getAnimatedValue();
+    /**
+     * Draws the cached shadow mask of the thumb, tinted by the shadow paint. While the shape is
+     * morphing the shadow of the target shape is shown, rather than blurring a new mask per frame.
+     */
+    private void drawThumbShadow(Canvas canvas, RenderCache renderCache) {
+        int width = Math.round(thumbViewShape.width());
+        int height = Math.round(thumbViewShape.height());
+        int padding = RenderCache.getShadowPadding(style.thumbShadowRadius);
+        float radius = shapeMorph.getTargetThumbRadius();
+        if ((thumbShadow == null)
+                || (thumbShadowMaskRadius != radius)
+                || (thumbShadow.getWidth() != width + (2 * padding))
+                || (thumbShadow.getHeight() != height + (2 * padding))) {
+            thumbShadow = renderCache.getShadowMask(width, height, shapeMorph.getShape(), radius, style.thumbShadowRadius);
+            thumbShadowMaskRadius = radius;
+        }
+        if (thumbShadow != null) {
+            canvas.drawBitmap(thumbShadow, thumbViewShape.left - padding,
+                    thumbViewShape.top - padding + style.thumbShadowDy, style.shadowPaint);
+        }
+    }
+
+    private static boolean isMaskValid(Bitmap mask, RectF shape, float maskRadius, float radius) {
+        return (mask != null)
+                && (maskRadius == radius)
+                && (mask.getWidth() == Math.round(shape.width()))
+                && (mask.getHeight() == Math.round(shape.height()));
+    }
+
+    /**
+     * Draws a shape from its cached mask (tinted by the paint color), or live when no mask is available.
+     */
+    private static void drawShape(Canvas canvas, Bitmap mask, RectF shape, float radius, Paint paint) {
+        if (mask != null) {
+            canvas.drawBitmap(mask, shape.left, shape.top, paint);
+        } else {
+            canvas.drawRoundRect(shape, radius, radius, paint);
+        }
+    }
+
+    /**
+     * Morphs the track and the thumb from their current outlines, possibly halfway through
+     * another morph, to the given shape. The animator is created once and reused.
+     */
+    private void animateViewShapeMorphing(int thumbShape) {
+        ValueAnimator animator = shapeMorphAnimator();
+        animator.cancel();
+        shapeMorph.morphTo(thumbShape);
+        animator.setDuration(style.shapeTransformationSpeed);
+        animator.start();
+    }
+
+    private ValueAnimator shapeMorphAnimator() {
+        if (shapeMorphAnimator == null) {
+            shapeMorphAnimator = ValueAnimator.ofFloat(0f, 1f);
+            shapeMorphAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    shapeMorph.setFraction(animation.getAnimatedFraction());
+                    invalidateTrack();
                 }
-                invalidate();
-            }
-        });
+            });
+        }
+        return shapeMorphAnimator;
+    }
+
+    private int destinationColor(int side) {
+        return model.colorOf(side);
+    }
 
-        /*ValueAnimator thumbRadiiAnimator = (thumbShape == THUMB_SHAPE_RECTANGLE)
-                ? ValueAnimator.ofInt(DEFAULT_CIRCULAR_THUMB_CORNER_RADII, DEFAULT_RECTANGULAR_THUMB_CORNER_RADII)
-                : ValueAnimator.ofInt(DEFAULT_RECTANGULAR_THUMB_CORNER_RADII, DEFAULT_CIRCULAR_THUMB_CORNER_RADII);*/
-        viewRadiiAnimator.start();
+    /**
+     * Labels are defined for the three sides only.
+     */
+    private boolean showsLabels() {
+        return style.hasLabels() && (model.getPositionCount() == SIDES.length);
     }
 
-    private int destinationColor(SIDE side) {
+    /**
+     * @return the position of a side: the first, the middle or the last one
+     */
+    private int positionOf(SIDE side) {
+        int last = model.getPositionCount() - 1;
         switch (side) {
             case LEFT:
-                return leftSideColor;
-            case MIDDLE:
-                return neutralColor;
+                return 0;
             case RIGHT:
-                return rightSideColor;
+                return last;
             default:
-                return 0;
+                return last / 2;
         }
     }
 
+    /**
+     * @return the side of a position: LEFT for the first, RIGHT for the last and MIDDLE for any
+     * position in between
+     */
+    static SIDE sideOf(int position, int positionCount) {
+        if (position == 0) {
+            return SIDE.LEFT;
+        } else if (position == positionCount - 1) {
+            return SIDE.RIGHT;
+        }
+        return SIDE.MIDDLE;
+    }
+
     // ******************************************
     // ****************************************** Callbacks & Listeners
     // ******************************************
@@ -646,7 +1440,16 @@ public class TriStateSwitch extends View {
     public static abstract class ICallback {
         public abstract void onSideChangeEnded(SIDE side);
         public void onSideChangeStarted(SIDE side) {
-            Log.d(TAG, String.format("onSideChangeStarted(%s)", side.name()));
+        }
+
+        /**
+         * Called before {@link #onSideChangeEnded(SIDE)} with the exact position, useful for a
+         * {@link SegmentedSwitch} whose inner positions are all reported as MIDDLE.
+         */
+        public void onPositionChangeEnded(int position) {
+        }
+
+        public void onPositionChangeStarted(int position) {
         }
     }
 
@@ -654,35 +1457,61 @@ public class TriStateSwitch extends View {
     // ****************************************** Custom classes
     // ******************************************
 
-    private class AnimatableRectF extends RectF{
-        public AnimatableRectF() {
-            super();
-        }
+    /**
+     * The saved state of a switch, packed into one int: the position and the position count
+     * in 12 bits each and the shape in the top 8 bits, which hold any id below
+     * {@link ShapeMorph#MAX_PRESETS}. A shape that is no preset after restoring is ignored.
+     */
+    static class SavedState extends BaseSavedState {
+
+        private static final int POSITION_BITS = 12;
+        private static final int POSITION_MASK = (1 << POSITION_BITS) - 1;
+        private static final int SHAPE_SHIFT = POSITION_BITS * 2;
 
-        public AnimatableRectF(float left, float top, float right, float bottom) {
-            super(left, top, right, bottom);
+        private final int packed;
+
+        SavedState(Parcelable superState, int packed) {
+            super(superState);
+            this.packed = packed;
         }
 
-        public AnimatableRectF(RectF r) {
-            super(r);
+        private SavedState(Parcel source) {
+            super(source);
+            packed = source.readInt();
         }
 
-        public AnimatableRectF(Rect r) {
-            super(r);
+        static int pack(int position, int positionCount, int shape) {
+            return (shape << SHAPE_SHIFT) | ((positionCount & POSITION_MASK) << POSITION_BITS) | (position & POSITION_MASK);
         }
 
-        public void setTop(float top){
-            this.top = top;
+        int getPosition() {
+            return packed & POSITION_MASK;
         }
-        public void setBottom(float bottom){
-            this.bottom = bottom;
+
+        int getPositionCount() {
+            return (packed >>> POSITION_BITS) & POSITION_MASK;
         }
-        public void setRight(float right){
-            this.right = right;
+
+        int getShape() {
+            return packed >>> SHAPE_SHIFT;
         }
-        public void setLeft(float left){
-            this.left = left;
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(packed);
         }
 
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel source) {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
     }
 }
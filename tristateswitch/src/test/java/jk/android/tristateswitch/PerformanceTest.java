@@ -0,0 +1,8 @@
+package jk.android.tristateswitch;
+
+/**
+ * JUnit category of the slow performance harnesses. They are excluded from the regular unit test
+ * run and run alone with {@code ./gradlew :tristateswitch:testDebugUnitTest -Pperformance}.
+ */
+public interface PerformanceTest {
+}
@@ -0,0 +1,93 @@
+package jk.android.tristateswitch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link ShapeMorph}.
+ */
+public class ShapeMorphTest {
+
+    private ShapeMorph morph;
+
+    @Before
+    public void setUp() {
+        morph = new ShapeMorph();
+        // A 208 x 88 track with an 80 x 72 thumb.
+        morph.layout(208, 88, 80, 72);
+    }
+
+    @Test
+    public void presets_resolveForTheSize() {
+        assertEquals(32, morph.getTrackRadius(), 0);
+        assertEquals(32, morph.getThumbRadius(), 0);
+
+        morph.setShape(ShapeMorph.CIRCLE);
+        assertEquals(44, morph.getTrackRadius(), 0);
+        assertEquals(36, morph.getThumbRadius(), 0);
+
+        morph.setShape(ShapeMorph.SQUARE);
+        assertEquals(0, morph.getTrackRadius(), 0);
+
+        morph.setShape(ShapeMorph.ROUNDED);
+        assertEquals(22, morph.getTrackRadius(), 0);
+        assertEquals(18, morph.getThumbRadius(), 0);
+    }
+
+    @Test
+    public void morph_interpolatesTrackAndThumbTogether() {
+        morph.morphTo(ShapeMorph.CIRCLE);
+        assertTrue(morph.isMorphing());
+        assertEquals(32, morph.getTrackRadius(), 0);
+
+        morph.setFraction(0.5f);
+        assertEquals(38, morph.getTrackRadius(), 0.001f);
+        assertEquals(34, morph.getThumbRadius(), 0.001f);
+
+        morph.setFraction(1);
+        assertFalse(morph.isMorphing());
+        assertEquals(44, morph.getTrackRadius(), 0);
+    }
+
+    @Test
+    public void morph_retargetsFromTheCurrentOutline() {
+        morph.morphTo(ShapeMorph.CIRCLE);
+        morph.setFraction(0.5f);
+
+        morph.morphTo(ShapeMorph.SQUARE);
+        assertEquals(38, morph.getTrackRadius(), 0.001f);
+        morph.setFraction(0.5f);
+        assertEquals(19, morph.getTrackRadius(), 0.001f);
+    }
+
+    @Test
+    public void addPreset_isAvailableToLaidOutMorphs() {
+        int shape = ShapeMorph.addPreset(8, 0, 0, 1);
+
+        morph.setShape(shape);
+        assertEquals(8, morph.getTrackRadius(), 0);
+        assertEquals(36, morph.getThumbRadius(), 0);
+    }
+
+    @Test
+    public void sharedRadii_areLeftAloneWhenAPresetIsAdded() {
+        ShapeMorph.Radii shared = new ShapeMorph.Radii(208, 88, 80, 72);
+        ShapeMorph other = new ShapeMorph();
+        morph.layout(shared);
+        other.layout(shared);
+        assertEquals(32, other.getTrackRadius(), 0);
+
+        int shape = ShapeMorph.addPreset(0, 0, 4, 0);
+        morph.setShape(shape);
+        assertEquals(4, morph.getThumbRadius(), 0);
+        assertFalse(shared.isCurrent());
+        assertEquals(32, other.getThumbRadius(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setShape_rejectsUnknownShape() {
+        morph.setShape(ShapeMorph.getPresetCount());
+    }
+}
@@ -0,0 +1,105 @@
+package jk.android.tristateswitch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link SideChangeDispatcher}, with frames and executors run by hand.
+ */
+public class SideChangeDispatcherTest {
+
+    private static final int POSITION_COUNT = 3;
+
+    private List<Runnable> frames;
+    private List<Runnable> executed;
+    private Executor executor;
+    private List<String> events;
+    private SideChangeDispatcher<String> dispatcher;
+
+    @Before
+    public void setUp() {
+        frames = new ArrayList<>();
+        executed = new ArrayList<>();
+        executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.add(command);
+            }
+        };
+        events = new ArrayList<>();
+        dispatcher = new SideChangeDispatcher<>(new SideChangeDispatcher.FrameScheduler() {
+            @Override
+            public void postOnNextFrame(Runnable task) {
+                frames.add(task);
+            }
+        }, new SideChangeDispatcher.Notifier<String>() {
+            @Override
+            public void notify(String callback, int started, int ended, int positionCount) {
+                events.add(callback + ":" + started + "/" + ended + "/" + positionCount);
+            }
+        });
+    }
+
+    @Test
+    public void executorDelivery_coalescesStartAndEndOfLaterFrames() {
+        dispatcher.add("a", executor);
+
+        dispatcher.dispatchStarted(2, POSITION_COUNT);
+        runFrames();
+        dispatcher.dispatchEnded(2, POSITION_COUNT);
+        runFrames();
+        // A new change starts before the executor ran: its start replaces the whole pair.
+        dispatcher.dispatchStarted(0, POSITION_COUNT);
+        runFrames();
+
+        assertEquals(1, executed.size());
+        runExecuted();
+        assertEquals(listOf("a:0/-1/3"), events);
+    }
+
+    @Test
+    public void clear_dropsPendingEventsWithoutEmptyCallbacks() {
+        dispatcher.add("direct", null);
+        dispatcher.add("executor", executor);
+
+        dispatcher.dispatchStarted(2, POSITION_COUNT);
+        runFrames();
+        dispatcher.clear();
+        dispatcher.dispatchStarted(1, POSITION_COUNT);
+        dispatcher.clear();
+        runFrames();
+        runExecuted();
+
+        assertEquals(listOf("direct:2/-1/3"), events);
+    }
+
+    // ******************************************
+    // ****************************************** Helper methods
+    // ******************************************
+
+    private void runFrames() {
+        while (!frames.isEmpty()) {
+            frames.remove(0).run();
+        }
+    }
+
+    private void runExecuted() {
+        while (!executed.isEmpty()) {
+            executed.remove(0).run();
+        }
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,246 @@
+package jk.android.tristateswitch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static jk.android.tristateswitch.TriStateSwitch.SIDE.LEFT;
+import static jk.android.tristateswitch.TriStateSwitch.SIDE.MIDDLE;
+import static jk.android.tristateswitch.TriStateSwitch.SIDE.RIGHT;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link SideStream}, driven by a virtual clock.
+ */
+public class SideStreamTest {
+
+    private VirtualScheduler scheduler;
+    private List<TriStateSwitch.SIDE> received;
+    private SideStream.Subscriber subscriber;
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        received = new ArrayList<>();
+        subscriber = new SideStream.Subscriber() {
+            @Override
+            public void onSide(TriStateSwitch.SIDE side) {
+                received.add(side);
+            }
+        };
+    }
+
+    @Test
+    public void debounce_emitsOnlyTheSettledSide() {
+        SideStream stream = new SideStream.Builder()
+                .debounce(300)
+                .scheduler(scheduler)
+                .build(subscriber);
+
+        stream.emit(LEFT);
+        scheduler.advanceBy(100);
+        stream.emit(MIDDLE);
+        scheduler.advanceBy(100);
+        stream.emit(RIGHT);
+        scheduler.advanceBy(299);
+        assertTrue(received.isEmpty());
+
+        scheduler.advanceBy(1);
+        assertEquals(listOf(RIGHT), received);
+    }
+
+    @Test
+    public void distinctUntilChanged_dropsRepeatedSides() {
+        SideStream stream = new SideStream.Builder()
+                .scheduler(scheduler)
+                .build(subscriber);
+
+        stream.emit(LEFT);
+        stream.emit(LEFT);
+        stream.emit(RIGHT);
+        stream.emit(RIGHT);
+        stream.emit(LEFT);
+
+        assertEquals(listOf(LEFT, RIGHT, LEFT), received);
+    }
+
+    @Test
+    public void debounce_backToTheSameSide_isNotEmittedTwice() {
+        SideStream stream = new SideStream.Builder()
+                .debounce(300)
+                .scheduler(scheduler)
+                .build(subscriber);
+
+        stream.emit(RIGHT);
+        scheduler.advanceBy(300);
+        stream.emit(LEFT);
+        scheduler.advanceBy(100);
+        stream.emit(RIGHT);
+        scheduler.advanceBy(300);
+
+        assertEquals(listOf(RIGHT), received);
+    }
+
+    @Test
+    public void conflation_pendingSidesCollapseToTheLatest() {
+        ManualExecutor executor = new ManualExecutor();
+        SideStream stream = new SideStream.Builder()
+                .scheduler(scheduler)
+                .deliverOn(executor)
+                .build(subscriber);
+
+        stream.emit(LEFT);      // delivery task queued
+        stream.emit(MIDDLE);    // replaces LEFT
+        stream.emit(RIGHT);     // replaces MIDDLE
+
+        executor.runAll();
+        assertEquals(listOf(RIGHT), received);
+    }
+
+    @Test
+    public void conflation_busySubscriberOnlySeesTheLatestSide() {
+        final SideStream[] stream = new SideStream[1];
+        stream[0] = new SideStream.Builder()
+                .scheduler(scheduler)
+                .build(new SideStream.Subscriber() {
+                    @Override
+                    public void onSide(TriStateSwitch.SIDE side) {
+                        received.add(side);
+                        if (side == LEFT) {
+                            // More sides arrive while the subscriber is still busy.
+                            stream[0].emit(MIDDLE);
+                            stream[0].emit(RIGHT);
+                        }
+                    }
+                });
+
+        stream[0].emit(LEFT);
+
+        assertEquals(listOf(LEFT, RIGHT), received);
+    }
+
+    @Test
+    public void conflation_returnToTheDeliveredSide_isNotDeliveredTwice() {
+        final SideStream[] stream = new SideStream[1];
+        stream[0] = new SideStream.Builder()
+                .scheduler(scheduler)
+                .build(new SideStream.Subscriber() {
+                    @Override
+                    public void onSide(TriStateSwitch.SIDE side) {
+                        received.add(side);
+                        if (received.size() == 1) {
+                            // RIGHT is buffered, then evicted by the return to LEFT.
+                            stream[0].emit(RIGHT);
+                            stream[0].emit(LEFT);
+                        }
+                    }
+                });
+
+        stream[0].emit(LEFT);
+
+        assertEquals(listOf(LEFT), received);
+    }
+
+    @Test
+    public void dropNewest_keepsBufferedSides() {
+        ManualExecutor executor = new ManualExecutor();
+        SideStream stream = new SideStream.Builder()
+                .scheduler(scheduler)
+                .deliverOn(executor)
+                .buffer(2, SideStream.OverflowPolicy.DROP_NEWEST)
+                .build(subscriber);
+
+        stream.emit(LEFT);
+        stream.emit(MIDDLE);
+        stream.emit(RIGHT);     // buffer full, dropped
+
+        executor.runAll();
+        assertEquals(listOf(LEFT, MIDDLE), received);
+    }
+
+    @Test
+    public void cancel_dropsPendingDebounce() {
+        SideStream stream = new SideStream.Builder()
+                .debounce(300)
+                .scheduler(scheduler)
+                .build(subscriber);
+
+        stream.emit(LEFT);
+        stream.cancel();
+        scheduler.advanceBy(1000);
+
+        assertTrue(received.isEmpty());
+    }
+
+    private static List<TriStateSwitch.SIDE> listOf(TriStateSwitch.SIDE... sides) {
+        List<TriStateSwitch.SIDE> list = new ArrayList<>();
+        for (TriStateSwitch.SIDE side : sides) {
+            list.add(side);
+        }
+        return list;
+    }
+
+    /**
+     * A scheduler whose time only moves when the test advances it.
+     */
+    private static final class VirtualScheduler implements SideStream.Scheduler {
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> dueTimes = new ArrayList<>();
+        private long now;
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            tasks.add(task);
+            dueTimes.add(now + delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if (tasks.get(i) == task) {
+                    tasks.remove(i);
+                    dueTimes.remove(i);
+                }
+            }
+        }
+
+        void advanceBy(long millis) {
+            now += millis;
+            for (int i = 0; i < tasks.size(); ) {
+                if (dueTimes.get(i) <= now) {
+                    Runnable task = tasks.remove(i);
+                    dueTimes.remove(i);
+                    task.run();
+                    i = 0;
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * An executor that queues tasks until the test runs them.
+     */
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                Iterator<Runnable> iterator = tasks.iterator();
+                Runnable task = iterator.next();
+                iterator.remove();
+                task.run();
+            }
+        }
+    }
+}
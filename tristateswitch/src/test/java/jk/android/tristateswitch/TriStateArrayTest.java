@@ -0,0 +1,148 @@
+package jk.android.tristateswitch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link TriStateArray}, checked against a plain int array.
+ */
+public class TriStateArrayTest {
+
+    @Test
+    public void newArray_isAllLeft() {
+        TriStateArray states = new TriStateArray(100);
+
+        assertEquals(100, states.size());
+        assertEquals(100, states.count(TriStateArray.LEFT));
+        assertEquals(0, states.count(TriStateArray.MIDDLE));
+        assertEquals(0, states.count(TriStateArray.RIGHT));
+    }
+
+    @Test
+    public void setAndGet_matchReference() {
+        int size = 1000;
+        TriStateArray states = new TriStateArray(size);
+        int[] reference = new int[size];
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            int index = random.nextInt(size);
+            int state = random.nextInt(3);
+            states.set(index, state);
+            reference[index] = state;
+        }
+
+        for (int i = 0; i < size; i++) {
+            assertEquals("index " + i, reference[i], states.get(i));
+        }
+    }
+
+    @Test
+    public void count_ignoresUnusedBitsOfLastWord() {
+        // 33 entries use two words, the second one only for a single entry.
+        TriStateArray states = new TriStateArray(33, TriStateArray.RIGHT);
+        states.set(32, TriStateArray.LEFT);
+
+        assertEquals(1, states.count(TriStateArray.LEFT));
+        assertEquals(0, states.count(TriStateArray.MIDDLE));
+        assertEquals(32, states.count(TriStateArray.RIGHT));
+    }
+
+    @Test
+    public void fillRange_setsOnlyTheRange() {
+        TriStateArray states = new TriStateArray(200, TriStateArray.MIDDLE);
+
+        states.fill(5, 150, TriStateArray.RIGHT);
+
+        for (int i = 0; i < 200; i++) {
+            int expected = (i >= 5 && i < 150) ? TriStateArray.RIGHT : TriStateArray.MIDDLE;
+            assertEquals("index " + i, expected, states.get(i));
+        }
+        assertEquals(145, states.count(TriStateArray.RIGHT));
+        assertEquals(55, states.count(TriStateArray.MIDDLE));
+    }
+
+    @Test
+    public void nextIndexOf_iteratesAllMatches() {
+        TriStateArray states = new TriStateArray(130);
+        int[] expected = {0, 31, 32, 64, 129};
+        for (int index : expected) {
+            states.set(index, TriStateArray.MIDDLE);
+        }
+
+        int found = 0;
+        for (int i = states.nextIndexOf(TriStateArray.MIDDLE, 0); i >= 0; i = states.nextIndexOf(TriStateArray.MIDDLE, i + 1)) {
+            assertEquals(expected[found++], i);
+        }
+        assertEquals(expected.length, found);
+    }
+
+    @Test
+    public void nextChangedIndex_findsEveryDifference() {
+        TriStateArray previous = new TriStateArray(100, TriStateArray.MIDDLE);
+        TriStateArray current = new TriStateArray(100, TriStateArray.MIDDLE);
+        current.set(3, TriStateArray.LEFT);
+        current.set(40, TriStateArray.RIGHT);
+        current.set(99, TriStateArray.LEFT);
+
+        assertEquals(3, current.nextChangedIndex(previous, 0));
+        assertEquals(40, current.nextChangedIndex(previous, 4));
+        assertEquals(99, current.nextChangedIndex(previous, 41));
+        assertEquals(-1, current.nextChangedIndex(previous, 100));
+        assertEquals(3, current.countChanges(previous));
+
+        previous.copyFrom(current);
+        assertEquals(-1, current.nextChangedIndex(previous, 0));
+        assertEquals(previous, current);
+    }
+
+    @Test
+    public void statesMatchSideOrdinals() {
+        assertEquals(TriStateSwitch.SIDE.LEFT.ordinal(), TriStateArray.LEFT);
+        assertEquals(TriStateSwitch.SIDE.MIDDLE.ordinal(), TriStateArray.MIDDLE);
+        assertEquals(TriStateSwitch.SIDE.RIGHT.ordinal(), TriStateArray.RIGHT);
+    }
+
+    @Test
+    public void toByteArray_roundTripsEveryState() {
+        Random random = new Random(7);
+        for (int size : new int[]{0, 1, 3, 4, 33, 10000}) {
+            TriStateArray states = new TriStateArray(size);
+            for (int i = 0; i < size; i++) {
+                states.set(i, random.nextInt(3));
+            }
+
+            byte[] bytes = states.toByteArray();
+
+            assertEquals(4 + ((size + 3) / 4), bytes.length);
+            assertEquals(states, TriStateArray.fromByteArray(bytes));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromByteArray_rejectsInvalidState() {
+        byte[] bytes = new TriStateArray(4).toByteArray();
+        bytes[4] = (byte) 0x03;
+        TriStateArray.fromByteArray(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromByteArray_rejectsTruncatedBytes() {
+        byte[] bytes = new TriStateArray(100).toByteArray();
+        TriStateArray.fromByteArray(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void set_rejectsInvalidState() {
+        new TriStateArray(10).set(0, 3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_rejectsOutOfRangeIndex() {
+        new TriStateArray(10).get(10);
+    }
+}
@@ -0,0 +1,189 @@
+package jk.android.tristateswitch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link TriStateModel}, {@link SwitchGeometry} and {@link ColorInterpolator}.
+ */
+public class TriStateModelTest {
+
+    private static final int LEFT_COLOR = 0xffff0000;
+    private static final int NEUTRAL_COLOR = 0xff808080;
+    private static final int RIGHT_COLOR = 0xff00ff00;
+
+    private TriStateModel model;
+
+    @Before
+    public void setUp() {
+        model = new TriStateModel(LEFT_COLOR, NEUTRAL_COLOR, RIGHT_COLOR);
+        model.layout(240, 120);
+    }
+
+    @Test
+    public void layout_solvesTrackAndThumb() {
+        SwitchGeometry geometry = model.getGeometry();
+
+        assertEquals(16, geometry.getTrackLeft(), 0);
+        assertEquals(224, geometry.getTrackRight(), 0);
+        assertEquals(80, geometry.getThumbWidth(), 0);
+        assertEquals(32, geometry.thumbDestination(TriStateArray.LEFT), 0);
+        assertEquals(80, geometry.thumbDestination(TriStateArray.MIDDLE), 0);
+        assertEquals(128, geometry.thumbDestination(TriStateArray.RIGHT), 0);
+    }
+
+    @Test
+    public void tap_selectsSideByThirds() {
+        assertFalse(model.tap(100));
+        assertEquals(TriStateArray.MIDDLE, model.getSide());
+
+        assertTrue(model.tap(10));
+        assertEquals(TriStateArray.LEFT, model.getSide());
+        assertEquals(LEFT_COLOR, model.getTrackColor());
+
+        assertTrue(model.tap(200));
+        assertEquals(TriStateArray.RIGHT, model.getSide());
+        assertEquals(128, model.getThumbDestination(), 0);
+    }
+
+    @Test
+    public void release_flingsToNextSideOrSettlesOnNearest() {
+        assertEquals(TriStateArray.MIDDLE, model.release(60, 1000, 50));
+        assertEquals(TriStateArray.LEFT, model.release(60, -1000, 50));
+        assertEquals(TriStateArray.RIGHT, model.release(110, 10, 50));
+        assertEquals(TriStateArray.RIGHT, model.getSide());
+    }
+
+    @Test
+    public void colorAt_blendsOverTheMiddle() {
+        ColorInterpolator colors = model.getColors();
+
+        assertEquals(LEFT_COLOR, colors.colorAt(0));
+        assertEquals(NEUTRAL_COLOR, colors.colorAt(0.5f));
+        assertEquals(RIGHT_COLOR, colors.colorAt(1));
+        assertEquals(0xff00ff00, ColorInterpolator.blend(0xff000000, 0xff00ff00, 1));
+        assertEquals(0x7f404040, ColorInterpolator.blend(0x00000000, 0xff808080, 0.5f));
+    }
+
+    @Test
+    public void transitionColor_matchesDirectBlend() {
+        ColorInterpolator colors = model.getColors();
+
+        assertEquals(LEFT_COLOR, colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, 0));
+        assertEquals(RIGHT_COLOR, colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, 1));
+        for (int i = 0; i < ColorInterpolator.TABLE_SIZE; i++) {
+            float fraction = (float) i / (ColorInterpolator.TABLE_SIZE - 1);
+            assertEquals(ColorInterpolator.blend(NEUTRAL_COLOR, RIGHT_COLOR, fraction),
+                    colors.transitionColor(TriStateArray.MIDDLE, TriStateArray.RIGHT, fraction));
+        }
+    }
+
+    @Test
+    public void transitionColor_followsColorAndModeChanges() {
+        ColorInterpolator colors = model.getColors();
+        int srgbMiddle = colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, 0.5f);
+
+        colors.setLinearLight(true);
+        int linearMiddle = colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, 0.5f);
+        // Linear light keeps the red to green midpoint brighter than the sRGB blend.
+        assertTrue(((linearMiddle >> 16) & 0xff) > ((srgbMiddle >> 16) & 0xff));
+        assertEquals(RIGHT_COLOR, colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, 1));
+
+        colors.setRightSideColor(0xff0000ff);
+        assertEquals(0xff0000ff, colors.transitionColor(TriStateArray.LEFT, TriStateArray.RIGHT, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSide_rejectsInvalidSide() {
+        model.setSide(3);
+    }
+
+    @Test
+    public void segmentedGeometry_hitTestsAndSettlesOnEveryPosition() {
+        TriStateModel segmented = new TriStateModel(new SwitchGeometry(16, 24, 5),
+                new ColorInterpolator(LEFT_COLOR, NEUTRAL_COLOR, RIGHT_COLOR));
+        segmented.layout(500, 120);
+        SwitchGeometry geometry = segmented.getGeometry();
+
+        assertEquals(2, segmented.getSide());
+        assertEquals(100, geometry.getThumbWidth(), 0);
+        assertEquals(32, geometry.thumbDestination(0), 0);
+        assertEquals(368, geometry.thumbDestination(4), 0);
+        // Segments of the 468 px track are 93.6 px wide.
+        assertEquals(0, geometry.hitTest(93));
+        assertEquals(1, geometry.hitTest(94));
+        assertEquals(4, geometry.hitTest(499));
+
+        assertEquals(3, geometry.nearestSide(260));
+        assertEquals(3, geometry.nextSide(200, true));
+        assertEquals(1, geometry.nextSide(200, false));
+        assertEquals(4, geometry.nextSide(368, true));
+
+        assertEquals(LEFT_COLOR, segmented.colorOf(0));
+        assertEquals(NEUTRAL_COLOR, segmented.colorOf(2));
+        assertEquals(RIGHT_COLOR, segmented.colorOf(4));
+    }
+
+    @Test
+    public void layout_belowTheMinimumSize_keepsBoundsInOrder() {
+        SwitchGeometry geometry = new SwitchGeometry(16, 24);
+        // An exact measure spec far below the 128 x 64 minimum.
+        geometry.layout(40, 20);
+
+        assertEquals(40, geometry.getWidth());
+        assertEquals(geometry.getMinimumWidth() - 16, geometry.getTrackRight(), 0);
+        assertTrue(geometry.getThumbBottom() > geometry.getThumbTop());
+        for (int position = 1; position < 3; position++) {
+            assertTrue(geometry.thumbDestination(position) > geometry.thumbDestination(position - 1));
+        }
+        assertEquals(TriStateArray.LEFT, geometry.hitTest(0));
+        assertEquals(TriStateArray.RIGHT, geometry.hitTest(1000));
+        assertEquals(geometry.thumbDestination(TriStateArray.RIGHT), geometry.clampThumbLeft(1000), 0);
+        assertEquals(geometry.thumbDestination(TriStateArray.LEFT), geometry.clampThumbLeft(-1000), 0);
+
+        // A geometry whose minimum does not cover the thumb travel keeps a degenerate, not an
+        // inverted travel.
+        SwitchGeometry flat = new SwitchGeometry(16, 0, 5);
+        flat.layout(10, 10);
+        for (int position = 1; position < 5; position++) {
+            assertTrue(flat.thumbDestination(position) >= flat.thumbDestination(position - 1));
+        }
+        assertEquals(flat.thumbDestination(0), flat.clampThumbLeft(-1000), 0);
+        assertEquals(4, flat.hitTest(1000));
+    }
+
+    @Test
+    public void layout_sharedBetweenGeometries_answersTheSame() {
+        SwitchGeometry first = new SwitchGeometry();
+        SwitchGeometry second = new SwitchGeometry();
+        SwitchGeometry.Layout layout = first.solve(240, 120);
+        first.layout(layout);
+        second.layout(layout);
+
+        assertEquals(240, second.getWidth());
+        assertEquals(first.thumbDestination(TriStateArray.RIGHT), second.thumbDestination(TriStateArray.RIGHT), 0);
+        assertEquals(TriStateArray.RIGHT, second.hitTest(200));
+
+        // Changing the position count solves private bounds, the shared ones stay as they were.
+        second.setPositionCount(5);
+        assertEquals(4, second.hitTest(230));
+        assertEquals(3, layout.thumbDestinations.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void layout_ofAnotherPositionCount_isRejected() {
+        new SwitchGeometry(16, 24, 5).layout(new SwitchGeometry().solve(240, 120));
+    }
+
+    @Test
+    public void setPositionCount_movesToTheMiddle() {
+        model.setSide(TriStateArray.RIGHT);
+        model.setPositionCount(7);
+
+        assertEquals(3, model.getSide());
+        assertEquals(34, model.getGeometry().getThumbWidth(), 0);
+        assertEquals(6, model.getGeometry().hitTest(239));
+    }
+}
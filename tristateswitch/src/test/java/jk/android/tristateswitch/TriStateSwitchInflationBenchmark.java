@@ -0,0 +1,230 @@
+package jk.android.tristateswitch;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inflates many switches, measures, lays out and draws them into a recording canvas, then
+ * animates them frame by frame on a paused clock. Time and allocations per instance are printed
+ * for each phase.
+ * <p>
+ * Switches are inflated once through a style, the shared and cached path of
+ * {@link SwitchStyle#obtain}, and once with inline attributes, which resolve a style per
+ * switch. The allocations of the shared path are gated: they must stay below those of the
+ * inline path and within the budgets below. Only runs with {@code -Pperformance}, see
+ * {@link PerformanceTest}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+@Category(PerformanceTest.class)
+public class TriStateSwitchInflationBenchmark {
+
+    private static final int INSTANCES = 500;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int FRAME_MILLIS = 16;
+    private static final int MAX_FRAMES = 120;
+
+    // Budgets of the shared-style path, with headroom over the Robolectric shadows. Lower them
+    // when an optimization lands so that the gain cannot silently regress.
+    private static final long MAX_INFLATE_BYTES_PER_INSTANCE = 64 * 1024;
+    private static final long MAX_FRAME_BYTES_PER_INSTANCE = 2 * 1024;
+
+    private Activity activity;
+    private AttributeSet styledAttrs;
+    private AttributeSet inlineAttrs;
+    private RecordingCanvas canvas;
+    private int maxConcurrentAnimations;
+
+    @Before
+    public void setUp() {
+        activity = Robolectric.setupActivity(Activity.class);
+        styledAttrs = Robolectric.buildAttributeSet()
+                .setStyleAttribute("@style/Widget.TriStateSwitch")
+                .build();
+        inlineAttrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.thumbColor, "#ffffffff")
+                .addAttribute(R.attr.neutralColor, "#ff9e9e9e")
+                .addAttribute(R.attr.leftSideColor, "#ffe53935")
+                .addAttribute(R.attr.rightSideColor, "#ff43a047")
+                .addAttribute(R.attr.thumbShape, "circle")
+                .build();
+        canvas = new RecordingCanvas();
+        maxConcurrentAnimations = TriStateSwitch.getMaxConcurrentAnimations();
+        TriStateSwitch.setMaxConcurrentAnimations(INSTANCES);
+    }
+
+    @After
+    public void tearDown() {
+        TriStateSwitch.setMaxConcurrentAnimations(maxConcurrentAnimations);
+    }
+
+    @Test
+    public void inflateMeasureDrawAndAnimate() {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRound(styledAttrs, null);
+            runRound(inlineAttrs, null);
+        }
+        Result inline = runRound(inlineAttrs, "inline attributes");
+        Result styled = runRound(styledAttrs, "shared style");
+
+        assertTrue("styled inflation allocates " + styled.inflateBytes + " B, inline " + inline.inflateBytes + " B",
+                styled.inflateBytes < inline.inflateBytes);
+        assertTrue("inflation allocates " + styled.inflateBytes + " B per instance",
+                styled.inflateBytes <= MAX_INFLATE_BYTES_PER_INSTANCE);
+        assertTrue("an animation frame allocates " + styled.frameBytes + " B per instance",
+                styled.frameBytes <= MAX_FRAME_BYTES_PER_INSTANCE);
+    }
+
+    // ******************************************
+
+    /**
+     * @param label printed with the results, or {@code null} for a warm-up round
+     */
+    private Result runRound(AttributeSet attrs, String label) {
+        boolean report = (label != null);
+        if (report) {
+            System.out.println(label + ":");
+        }
+        TriStateSwitch[] switches = new TriStateSwitch[INSTANCES];
+        Sample sample = new Sample();
+        Result result = new Result();
+
+        sample.start();
+        for (int i = 0; i < INSTANCES; i++) {
+            switches[i] = new TriStateSwitch(activity, attrs);
+        }
+        sample.stop();
+        report(report, "inflate", sample, INSTANCES);
+        result.inflateBytes = sample.bytes / INSTANCES;
+        if (attrs == styledAttrs) {
+            for (TriStateSwitch view : switches) {
+                assertSame("styled switches must share one style", switches[0].getStyle(), view.getStyle());
+            }
+        }
+
+        sample.start();
+        for (TriStateSwitch view : switches) {
+            view.measure(View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED),
+                    View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+            view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        }
+        sample.stop();
+        report(report, "measure + layout", sample, INSTANCES);
+
+        canvas.reset();
+        sample.start();
+        for (TriStateSwitch view : switches) {
+            view.draw(canvas);
+        }
+        sample.stop();
+        report(report, "first draw", sample, INSTANCES);
+        assertTrue("nothing was drawn", canvas.operations >= INSTANCES);
+
+        // Animate every switch to the right, stepping the paused clock one frame at a time and
+        // redrawing all switches per frame as a list would.
+        for (TriStateSwitch view : switches) {
+            view.setSide(TriStateSwitch.SIDE.RIGHT);
+        }
+        int frames = 0;
+        canvas.reset();
+        sample.start();
+        while (frames < MAX_FRAMES && FrameClock.getInstance().getActiveCount() > 0) {
+            ShadowLooper.idleMainLooper(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+            for (TriStateSwitch view : switches) {
+                view.draw(canvas);
+            }
+            frames++;
+        }
+        sample.stop();
+        report(report, "animation frames (" + frames + ")", sample, INSTANCES * Math.max(frames, 1));
+        result.frameBytes = sample.bytes / (INSTANCES * Math.max(frames, 1));
+
+        assertEquals("animations did not settle", 0, FrameClock.getInstance().getActiveCount());
+        for (TriStateSwitch view : switches) {
+            assertEquals(TriStateSwitch.SIDE.RIGHT, view.getSide());
+        }
+        return result;
+    }
+
+    private static void report(boolean report, String phase, Sample sample, int count) {
+        if (report) {
+            System.out.println(String.format("%-28s %8d ns/instance %8d bytes/instance",
+                    phase, sample.nanos / count, sample.bytes / count));
+        }
+    }
+
+    // ******************************************
+
+    /**
+     * Bytes allocated per instance by the gated phases of a round.
+     */
+    private static final class Result {
+        long inflateBytes;
+        long frameBytes;
+    }
+
+    /**
+     * Wall time and bytes allocated by the current thread between {@link #start()} and {@link #stop()}.
+     */
+    private static final class Sample {
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final long threadId = Thread.currentThread().getId();
+
+        long nanos;
+        long bytes;
+
+        void start() {
+            bytes = threads.getThreadAllocatedBytes(threadId);
+            nanos = System.nanoTime();
+        }
+
+        void stop() {
+            nanos = System.nanoTime() - nanos;
+            bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+        }
+    }
+
+    /**
+     * A canvas that only counts the draw operations issued by the switch.
+     */
+    private static final class RecordingCanvas extends Canvas {
+        int operations;
+
+        void reset() {
+            operations = 0;
+        }
+
+        @Override
+        public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+            operations++;
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+            operations++;
+        }
+    }
+}